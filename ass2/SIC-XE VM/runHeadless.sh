@@ -0,0 +1,9 @@
+#cd src || exit
+
+mkdir -p bin
+
+javac -d bin src/sic/simulator/*.java src/sic/simulator/UI/*.java
+
+cd bin
+
+java sic.simulator.Headless ../inp/"$1" $2
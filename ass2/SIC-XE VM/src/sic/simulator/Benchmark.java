@@ -0,0 +1,87 @@
+package sic.simulator;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+//meritev hitrosti izvajalnika na vzorcnih programih (ukazi na sekundo)
+//program se izvaja do halt ali do RUN_BUDGET ukazov, nato se z reset vrne na posnetek po nalaganju, dokler ne izvedemo MIN_INSTRUCTIONS
+//cas reseta ni vstet, merimo samo izvajanje
+//z --mapped se vsak program izmeri se na MappedMemory (pomnilnik v preslikani datoteki)
+//poleg hitrosti se preveri, da izvajanje ne alocira (stevec alociranih bajtov niti), sicer je izhodna koda 1
+public class Benchmark{
+
+    private static final long MIN_INSTRUCTIONS = 10_000_000L;
+    private static final long RUN_BUDGET = 2_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        boolean mapped = args.length > 0 && args[0].equals("--mapped");
+        if(mapped){
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if(args.length < 1){
+            System.err.println("Uporaba: java sic.simulator.Benchmark [--mapped] <datoteka.obj>...");
+            System.exit(2);
+        }
+        boolean alocira = false;
+        for(String file : args){
+            String obj = Files.readString(Path.of(file));
+            String ime = Path.of(file).getFileName().toString();
+            alocira |= izmeri(ime, new Machine(), obj);
+            if(mapped){
+                //isti program se na pomnilniku v preslikani datoteki
+                Path slika = Files.createTempFile("sic", ".mem");
+                MappedMemory mm = MappedMemory.open(slika, Machine.MAX_ADDR);
+                try{
+                    alocira |= izmeri(ime + " (mapped)", new Machine(mm), obj);
+                } finally{
+                    mm.close();
+                    Files.delete(slika);
+                }
+            }
+        }
+        if(alocira){
+            System.err.println("Izvajanje alocira pomnilnik!");
+            System.exit(1);
+        }
+    }
+
+    //izpise vrstico z rezultatom, vrne true, ce je izvajanje alociralo
+    private static boolean izmeri(String ime, Machine m, String obj){
+        measure(m, obj, MIN_INSTRUCTIONS / 10); // ogrevanje JIT-a
+        long[] r = measure(m, obj, MIN_INSTRUCTIONS);
+        System.out.printf("%-20s %12d ukazov %10.1f ms %8.2f MIPS %12d B alocirano%n",
+                ime, r[0], r[1] / 1e6, r[0] * 1e3 / r[1], r[2]);
+        return r[2] > 0;
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    //vrne {stevilo ukazov, nanosekunde, alocirani bajti med izvajanjem}
+    static long[] measure(Machine m, String obj, long minInstructions){
+        long executed = 0;
+        long nanos = 0;
+        long allocated = 0;
+        m.clearSnapshot();
+        m.reset();
+        if(!Utils.loadSection(m, new StringReader(obj))){
+            throw new IllegalArgumentException("Napaka pri nalaganju programa");
+        }
+        m.snapshot();
+        while(executed < minInstructions){
+            m.reset();
+            long alloc = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            m.run(RUN_BUDGET);
+            long n = m.getExecuted();
+            nanos += System.nanoTime() - start;
+            allocated += THREADS.getCurrentThreadAllocatedBytes() - alloc;
+            executed += n;
+        }
+        return new long[]{executed, nanos, allocated};
+    }
+}
@@ -0,0 +1,142 @@
+package sic.simulator;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+//graf klicev iz JSUB/RSUB: senca sklada klicev, vsak ukaz se pristeje funkciji na vrhu sklada
+//klice ga Profiler za vsak ukaz, zato brez profila ne stane nic
+//JSUB doda okvir za ciljni naslov (z naslovom vrnitve), RSUB umakne okvire do tistega, ki se vraca na naslednji PC;
+//tako tudi rec.asm, ki L shranjuje na svoj sklad (stackpush/stackpop), ostane poravnan
+//prekinitve in LPS sklada ne spreminjajo, rutina se steje funkciji, ki je bila prekinjena
+public class CallGraph{
+
+    //globlje rekurzije se ne sledi vec (neskoncna rekurzija ne sme porabit pomnilnika), ukazi se stejejo zadnjemu okvirju
+    private static final int MAX_DEPTH = 1024;
+
+    //vozlisce je funkcija v doloceni verigi klicev (kot v flame graphu)
+    private static final class Node{
+        final int naslov;
+        final Node stars;
+        final HashMap<Integer, Node> otroci = new HashMap<>();
+        long sam; // ukazi v tej funkciji brez klicanih
+
+        Node(int naslov, Node stars){
+            this.naslov = naslov;
+            this.stars = stars;
+        }
+
+        Node otrok(int naslov){
+            Node n = otroci.get(naslov);
+            if(n == null){
+                n = new Node(naslov, this);
+                otroci.put(naslov, n);
+            }
+            return n;
+        }
+    }
+
+    private Node koren; // ustvari se ob prvem ukazu, ime dobi po zacetnem naslovu
+    private Node trenutni;
+    private final int[] vrnitve = new int[MAX_DEPTH];
+    private int globina;
+    private int prek; // klici cez MAX_DEPTH, ki se jim ne sledi
+    private boolean klic, vracanje; // prejsnji ukaz je bil JSUB oziroma RSUB
+    private int vrnitev; // naslov za zadnjim JSUB
+
+    //en izveden ukaz na pc
+    void count(int pc, long ukaz){
+        if(trenutni == null)
+            trenutni = koren = new Node(pc, null);
+        if(klic){
+            klic = false;
+            if(globina < MAX_DEPTH){
+                vrnitve[globina++] = vrnitev;
+                trenutni = trenutni.otrok(pc); // pc je cilj skoka, tudi pri posrednem naslavljanju
+            }
+            else
+                prek++;
+        }
+        else if(vracanje){
+            vracanje = false;
+            vrni(pc);
+        }
+        trenutni.sam++;
+        int h = Dispatch.TABLE[DecodeCache.opcode(ukaz)].handler;
+        if(h == Opcode.JSUB){
+            klic = true;
+            vrnitev = pc + DecodeCache.length(ukaz);
+        }
+        else if(h == Opcode.RSUB)
+            vracanje = true;
+    }
+
+    //RSUB je skocil na pc: umakne okvire do klica, ki se vraca na pc; ce ga ni, umakne samo enega
+    private void vrni(int pc){
+        if(prek > 0){
+            prek--;
+            return;
+        }
+        for(int d = globina - 1; d >= 0; d--){
+            if(vrnitve[d] == pc){
+                for(; globina > d; globina--)
+                    trenutni = trenutni.stars;
+                return;
+            }
+        }
+        if(globina > 0){
+            globina--;
+            trenutni = trenutni.stars;
+        }
+    }
+
+    public void clear(){
+        koren = trenutni = null;
+        globina = prek = 0;
+        klic = vracanje = false;
+    }
+
+    //collapsed stacks (kot stackcollapse v FlameGraph): "main;fak;fak 123" v vsaki vrstici, stevilo so ukazi brez klicanih
+    public void writeCollapsed(Writer out, Profiler imena) throws IOException {
+        if(koren != null)
+            collapsed(out, imena, koren, imena.label(koren.naslov));
+    }
+
+    private void collapsed(Writer out, Profiler imena, Node n, String pot) throws IOException {
+        if(n.sam > 0)
+            out.write(pot + " " + n.sam + "\n");
+        for(Node o : n.otroci.values())
+            collapsed(out, imena, o, pot + ";" + imena.label(o.naslov));
+    }
+
+    //po funkcijah: vkljucno (s klicanimi, rekurzija se steje enkrat) in izkljucno (samo svoji ukazi)
+    public void report(PrintStream out, Profiler imena){
+        if(koren == null)
+            return;
+        TreeMap<Integer, long[]> funkcije = new TreeMap<>();
+        sestej(koren, funkcije, new HashMap<>());
+        ArrayList<Map.Entry<Integer, long[]>> vrstice = new ArrayList<>(funkcije.entrySet());
+        vrstice.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        out.println("Klici (vkljucno / izkljucno):");
+        for(Map.Entry<Integer, long[]> e : vrstice)
+            out.printf("  %-16s %12d %12d%n", imena.label(e.getKey()), e.getValue()[0], e.getValue()[1]);
+    }
+
+    //vrne vse ukaze v poddrevesu; aktivni steje, kolikokrat je funkcija ze na poti od korena (rekurzija)
+    private static long sestej(Node n, Map<Integer, long[]> funkcije, Map<Integer, Integer> aktivni){
+        long[] f = funkcije.computeIfAbsent(n.naslov, k -> new long[2]);
+        f[1] += n.sam;
+        int nivo = aktivni.merge(n.naslov, 1, Integer::sum);
+        long vse = n.sam;
+        for(Node o : n.otroci.values())
+            vse += sestej(o, funkcije, aktivni);
+        if(nivo == 1)
+            f[0] += vse; // samo najvisji klic v rekurziji
+        aktivni.merge(n.naslov, -1, Integer::sum);
+        return vse;
+    }
+}
@@ -0,0 +1,216 @@
+package sic.simulator;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+//I/O kanal za SIO/TIO/HIO: kanalski program prenasa bloke med napravo in pomnilnikom v svoji niti, CPU medtem racuna
+//stevilka kanala je v A, naslov kanalskega programa v S (SIO)
+//kanalski program je zaporedje ukazov (CCW) po 3 besede:
+//  [ukaz, naprava, 0] [naslov v pomnilniku] [stevilo bajtov]
+//ukaz: 0 konec, 1 branje (naprava -> pomnilnik), 2 pisanje (pomnilnik -> naprava)
+//ukazi se preberejo ob SIO, takrat se skopira tudi vsebina za pisanje;
+//prebrani bloki se zapisejo v pomnilnik na niti stroja, ko TIO vidi, da je kanal koncal
+//tako se Memory (in DecodeCache, JIT) nikoli ne dotakne druga nit
+//med prenosom naj program ne uporablja iste naprave z RD/WD
+public class Channel{
+
+    public static final int COUNT = 16;
+    public static final int END = 0;
+    public static final int READ = 1;
+    public static final int WRITE = 2;
+    public static final int CCW_SIZE = 9;
+    private static final int MAX_CCW = 256; // da se neskoncen program ne zacikla
+
+    //SW kot pri primerjavi: = prost/koncan, < zaseden, > napaka
+    public static final int CC_DONE = 0x40;
+    public static final int CC_BUSY = 0x00;
+    public static final int CC_ERROR = 0x80;
+
+    private static final int PROST = 0, DELA = 1, KONCAN = 2, NAPAKA = 3;
+
+    private static final class Ukaz{
+        final int ukaz;
+        final Device naprava;
+        final int naslov;
+        final byte[] podatki;
+        int n; // dejansko prenesenih bajtov (branje do EOF je lahko krajse)
+
+        Ukaz(int ukaz, Device naprava, int naslov, byte[] podatki){
+            this.ukaz = ukaz;
+            this.naprava = naprava;
+            this.naslov = naslov;
+            this.podatki = podatki;
+        }
+    }
+
+    //program skupaj z generacijo ob SIO, da ju nit prevzame hkrati
+    private static final class Zagon{
+        final Ukaz[] program;
+        final int generacija;
+
+        Zagon(Ukaz[] program, int generacija){
+            this.program = program;
+            this.generacija = generacija;
+        }
+    }
+
+    private final String ime;
+    private Thread nit;
+    //SIO, ki ga nit se ni prevzela; nit ga vzame z getAndSet(null), reset ga zavrze
+    private final AtomicReference<Zagon> program = new AtomicReference<>();
+    private Ukaz[] rezultat; // izveden program, viden po branju stanja
+    private volatile int stanje = PROST;
+    private volatile boolean ustavi;
+    //reset jo poveca; nit objavi rezultat samo, ce se ni spremenila od SIO, da star program po resetu ne pise v pomnilnik
+    private volatile int generacija;
+    //stevilo prenesenih bajtov zadnjega programa (po TIO)
+    private int preneseno;
+    private boolean javljeno; // I/O prekinitev za zadnji program je ze bila sprozena
+
+    public Channel(int stevilka){
+        this.ime = "sic-channel-" + stevilka;
+    }
+
+    //SIO: prebere kanalski program z naslova in ga zazene; false, ce kanal se dela ali ni prevzet rezultat
+    public boolean start(Machine m, int naslov){
+        if(stanje != PROST)
+            return false;
+        Ukaz[] p;
+        try {
+            p = preberi(m, naslov);
+        } catch (RuntimeException e) {
+            System.err.println("Neveljaven kanalski program na " + Integer.toHexString(naslov) + ": " + e.getMessage());
+            javljeno = false;
+            stanje = NAPAKA;
+            return true;
+        }
+        javljeno = false;
+        synchronized(this){
+            ustavi = false;
+            stanje = DELA;
+            program.set(new Zagon(p, generacija));
+        }
+        if(nit == null){
+            nit = new Thread(this::izvajaj, ime);
+            nit.setDaemon(true);
+            nit.start();
+        }
+        else
+            LockSupport.unpark(nit);
+        return true;
+    }
+
+    private static Ukaz[] preberi(Machine m, int naslov){
+        Ukaz[] p = new Ukaz[MAX_CCW];
+        int n = 0;
+        for(int a = naslov; n < MAX_CCW; a += CCW_SIZE){
+            int ukaz = m.mem.getByte(a);
+            if(ukaz == END)
+                break;
+            if(ukaz != READ && ukaz != WRITE)
+                throw new IllegalArgumentException("ukaz " + ukaz);
+            Device d = m.device(m.mem.getByte(a + 1));
+            int kam = m.mem.getWord(a + 3);
+            int dolzina = m.mem.getWord(a + 6);
+            if(d == null || kam + dolzina > m.mem.size())
+                throw new IllegalArgumentException("CCW " + n);
+            if(ukaz == READ)
+                p[n++] = new Ukaz(ukaz, d, kam, new byte[dolzina]);
+            else
+                p[n++] = new Ukaz(ukaz, d, kam, m.mem.getBytes(kam, dolzina));
+        }
+        return Arrays.copyOf(p, n);
+    }
+
+    //nit kanala: caka na program in ga izvede blok za blokom
+    private void izvajaj(){
+        while(true){
+            Zagon z = program.getAndSet(null);
+            if(z == null){
+                LockSupport.park(this);
+                continue;
+            }
+            Ukaz[] p = z.program;
+            int g = z.generacija;
+            int s = KONCAN;
+            try {
+                for(Ukaz u : p){
+                    if(ustavi || g != generacija)
+                        break;
+                    if(u.ukaz == READ)
+                        u.n = u.naprava.read(u.podatki, 0, u.podatki.length);
+                    else{
+                        u.naprava.write(u.podatki, 0, u.podatki.length);
+                        u.n = u.podatki.length;
+                    }
+                }
+            } catch (RuntimeException e) {
+                System.err.println(ime + ": " + e);
+                s = NAPAKA;
+            }
+            synchronized(this){
+                if(g == generacija){
+                    rezultat = p;
+                    stanje = s; // objavi rezultat
+                }
+            }
+        }
+    }
+
+    //TIO: stanje kanala kot SW; ob koncu prebrane bloke zapise v pomnilnik in kanal sprosti
+    public int test(Machine m){
+        switch(stanje){
+            case DELA:
+                return CC_BUSY;
+            case KONCAN:
+                preneseno = 0;
+                for(Ukaz u : rezultat){
+                    if(u.ukaz == READ && u.n > 0)
+                        m.mem.setBytes(u.naslov, u.n == u.podatki.length ? u.podatki : Arrays.copyOf(u.podatki, u.n));
+                    preneseno += u.n;
+                }
+                rezultat = null;
+                stanje = PROST;
+                return CC_DONE;
+            case NAPAKA:
+                rezultat = null;
+                stanje = PROST;
+                return CC_ERROR;
+            default:
+                return CC_DONE;
+        }
+    }
+
+    //HIO: ustavi kanal za trenutnim blokom; kar je bilo ze prebrano, se zapise ob naslednjem TIO
+    public void halt(){
+        ustavi = true;
+    }
+
+    //ob resetu stroja: ustavi kanal in zavrze rezultat; tekoci blok se se konca, a se ne objavi
+    public synchronized void reset(){
+        ustavi = true;
+        generacija++;
+        program.set(null); // SIO, ki ga nit se ni prevzela
+        rezultat = null;
+        stanje = PROST;
+    }
+
+    //kanal je koncal (ali javil napako), I/O prekinitev pa se ni bila sprozena; klice samo nit stroja
+    public boolean pendingInterrupt(){
+        int s = stanje;
+        return (s == KONCAN || s == NAPAKA) && !javljeno;
+    }
+
+    public void acknowledge(){
+        javljeno = true;
+    }
+
+    public boolean isBusy(){
+        return stanje == DELA;
+    }
+
+    public int getTransferred(){
+        return preneseno;
+    }
+}
@@ -0,0 +1,157 @@
+package sic.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+//shranjevanje celotnega stanja stroja v binarno datoteko in nalaganje nazaj (tudi v drugem JVM)
+//format: glava (SICX, verzija, zastavice), nato (po potrebi stisnjeno z Deflate):
+//  registri 0-9, F (48 bitov), curOp
+//  casovnik, zahtevane prekinitve in njihovi ICODE (od verzije 2)
+//  velikost pomnilnika, neprazne strani (stevilka strani + 4 KB), -1
+//  polozaji naprav (stevilka naprave + polozaj), -1
+//prazne strani se ne zapisejo, zato je checkpoint majhnega programa velik nekaj KB
+public class Checkpoint{
+
+    private static final int MAGIC = 0x53494358; // "SICX"
+    private static final int VERSION = 2;
+    private static final int COMPRESSED = 0x1;
+    private static final int INTERRUPTS = 8 + 4 + 4 * Interrupt.COUNT; // kar zapise Machine.writeInterrupts
+
+    //zapise stanje v datoteko; najprej v zacasno datoteko in jo nato premakne, da prekinjen zapis ne pokvari prejsnjega
+    //klice se, ko stroj ne tece (npr. med dvema klicema run)
+    public static void save(Machine m, Path datoteka, boolean stisni) throws IOException {
+        Path tmp = datoteka.resolveSibling(datoteka.getFileName() + ".tmp");
+        try(OutputStream os = Files.newOutputStream(tmp)){
+            DataOutputStream glava = new DataOutputStream(os);
+            glava.writeInt(MAGIC);
+            glava.writeInt(VERSION);
+            glava.writeInt(stisni ? COMPRESSED : 0);
+            OutputStream telo = stisni ? new DeflaterOutputStream(os, new Deflater(Deflater.BEST_SPEED), 1 << 16) : os;
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(telo, 1 << 16));
+            write(m, out);
+            out.flush();
+            if(telo instanceof DeflaterOutputStream)
+                ((DeflaterOutputStream) telo).finish();
+        }
+        Files.move(tmp, datoteka, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write(Machine m, DataOutputStream out) throws IOException {
+        for(int i = 0; i <= Register.SW; i++)
+            out.writeInt(Register.isWord(i) ? m.regs.getReg(i) : 0); // F je posebej, 7 ni register
+        out.writeLong(m.regs.getFRaw());
+        out.writeInt(m.curOp);
+        m.writeInterrupts(out);
+
+        Memory mem = m.mem;
+        out.writeInt(mem.size());
+        byte[] stran = new byte[Memory.PAGE_SIZE];
+        int strani = (mem.size() + Memory.PAGE_SIZE - 1) >> Memory.PAGE_BITS;
+        for(int i = 0; i < strani; i++){
+            if(mem.readPage(i, stran)){
+                out.writeInt(i);
+                out.write(stran);
+            }
+        }
+        out.writeInt(-1);
+
+        for(int i = 0; i < Machine.MAX_DEVICES; i++){
+            Device d = m.getDevice(i);
+            long pos = d == null ? -1 : d.getPosition();
+            if(pos >= 0){
+                out.writeInt(i);
+                out.writeLong(pos);
+            }
+        }
+        out.writeInt(-1);
+    }
+
+    //nalozi stanje iz datoteke v obstojec stroj (napravam se nastavi samo polozaj)
+    //stroj se spremeni sele, ko je prebrana cela datoteka, zato pokvarjena ali prekratka datoteka stanja ne spremeni
+    //pomnilnik se najprej pobrise, zato DecodeCache in JIT dobita obvestilo kot pri reset
+    public static void load(Machine m, Path datoteka) throws IOException {
+        try(InputStream is = new BufferedInputStream(Files.newInputStream(datoteka), 1 << 16)){
+            DataInputStream glava = new DataInputStream(is);
+            if(glava.readInt() != MAGIC)
+                throw new IOException("Ni checkpoint datoteka: " + datoteka);
+            int verzija = glava.readInt();
+            if(verzija < 1 || verzija > VERSION)
+                throw new IOException("Nepodprta verzija checkpointa: " + verzija);
+            int zastavice = glava.readInt();
+            DataInputStream in = new DataInputStream((zastavice & COMPRESSED) != 0 ? new InflaterInputStream(is, new Inflater(), 1 << 16) : is);
+            UndoLog undo = m.getUndoLog();
+            m.setUndoLog(null); // nalaganje ne gre v zgodovino, ta se zacne v nalozenem stanju
+            try {
+                read(m, in, verzija);
+            } finally {
+                m.setUndoLog(undo);
+            }
+        }
+    }
+
+    private static void read(Machine m, DataInputStream in, int verzija) throws IOException {
+        Register regs = new Register();
+        for(int i = 0; i <= Register.SW; i++){
+            int r = in.readInt();
+            if(Register.isWord(i))
+                regs.setReg(i, r);
+        }
+        regs.setFRaw(in.readLong());
+        int curOp = in.readInt();
+        byte[] prekinitve = null;
+        if(verzija >= 2){
+            prekinitve = new byte[INTERRUPTS];
+            in.readFully(prekinitve);
+        }
+
+        int velikost = in.readInt();
+        if(velikost != m.mem.size())
+            throw new IOException("Velikost pomnilnika se ne ujema: " + velikost + " != " + m.mem.size());
+        int strani = (velikost + Memory.PAGE_SIZE - 1) >> Memory.PAGE_BITS;
+        ArrayList<Integer> stevilke = new ArrayList<>();
+        ArrayList<byte[]> vsebine = new ArrayList<>();
+        for(int i = in.readInt(); i >= 0; i = in.readInt()){
+            if(i >= strani)
+                throw new IOException("Neveljavna stran v checkpointu: " + i);
+            byte[] stran = new byte[Memory.PAGE_SIZE];
+            in.readFully(stran);
+            stevilke.add(i);
+            vsebine.add(stran);
+        }
+
+        ArrayList<long[]> polozaji = new ArrayList<>(); // naprava, polozaj
+        for(int i = in.readInt(); i >= 0; i = in.readInt()){
+            if(i >= Machine.MAX_DEVICES)
+                throw new IOException("Neveljavna naprava v checkpointu: " + i);
+            polozaji.add(new long[]{i, in.readLong()});
+        }
+
+        //stanje se zamenja sele, ko je vse prebrano
+        if(prekinitve != null)
+            m.readInterrupts(new DataInputStream(new ByteArrayInputStream(prekinitve)));
+        m.mem.reset();
+        for(int k = 0; k < stevilke.size(); k++)
+            m.mem.setBytes(stevilke.get(k) << Memory.PAGE_BITS, vsebine.get(k));
+        for(long[] p : polozaji){
+            Device d = m.device((int) p[0]); // datoteka se odpre, ce je se ni
+            if(d != null)
+                d.setPosition(p[1]);
+        }
+        m.regs.copyFrom(regs);
+        m.curOp = curOp;
+    }
+}
@@ -1,64 +1,122 @@
 package sic.simulator;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.locks.LockSupport;
 
 public class Clock {
 
-    private Timer timer;
-    private boolean isRunning = false;
-    private int speed;
-    private Machine machine;
-    private boolean wasCancelled = false;
+    //koliko ukazov izvedemo med dvema preverjanjema stop/pause
+    private static final int BURST = 4096;
+    private static final long NANOS = 1_000_000_000L;
 
+    private Thread thread;
+    private volatile boolean isRunning = false;
+    private volatile boolean isPaused = false;
+    private volatile long speed; // ukazov na sekundo, 0 = brez omejitve
+    private ExecutionEngine engine;
+    private volatile ExecutionEngine.StopReason stopReason;
 
 
-
-
-    public Clock(int speed, Machine machine) {
+    public Clock(long speed, ExecutionEngine engine) {
         this.speed = speed;
-        this.machine = machine;
-        this.timer = new Timer();
+        this.engine = engine;
+    }
+
+    public Clock(ExecutionEngine engine) {
+        this(0, engine);
     }
 
-    public void start(){
+    public synchronized void start(){
         if(!isRunning){
             isRunning = true;
-            if(wasCancelled){
-                timer = new Timer();
-                wasCancelled = false;
-            }
-            TimerTask izvedi = new TimerTask() {
-                @Override
-                public void run() {
-                    //eksekucija se mora ustavit ko pridemo do halt J halt, tam se zacikla, cp se neha spreminjat
-                    int oldPC = machine.regs.getPC();
-                    machine.execute();
-                    int newPC = machine.regs.getPC();
-                    if(oldPC == newPC) {
-                        stop();
-                    }
-                }
-            };
-            timer.scheduleAtFixedRate(izvedi, 0, speed);
+            isPaused = false;
+            stopReason = null;
+            thread = new Thread(this::izvajaj, "sic-clock");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        else if(isPaused){
+            resume();
         }
     }
 
-    public void stop(){
+    public synchronized void stop(){
         if(isRunning){
-            timer.cancel();
             isRunning = false;
-            wasCancelled = true;
+            LockSupport.unpark(thread);
+            //pocakamo da se trenutni burst konca, da je stanje stroja po stop() konsistentno
+            if(thread != Thread.currentThread()){
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    public void pause(){
+        isPaused = true;
+    }
+
+    public void resume(){
+        isPaused = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void izvajaj(){
+        long zacetek = System.nanoTime();
+        long izvedeno = 0;
+        long hitrost = speed;
+        while(isRunning){
+            if(isPaused){
+                engine.flushDevices();
+                LockSupport.park(this);
+                zacetek = System.nanoTime();
+                izvedeno = 0;
+                continue;
+            }
+            if(hitrost != speed){
+                hitrost = speed;
+                zacetek = System.nanoTime();
+                izvedeno = 0;
+            }
+            //pri omejeni hitrosti delamo krajse burste (~10 ms), da je tempo enakomeren
+            int burst = hitrost > 0 ? (int) Math.max(1, Math.min(BURST, hitrost / 100)) : BURST;
+
+            //eksekucija se mora ustavit ko pridemo do halt J halt, tam se zacikla, pc se neha spreminjat
+            ExecutionEngine.StopReason r = engine.run(burst);
+            izvedeno += engine.getExecuted();
+            if(r == ExecutionEngine.StopReason.HALT || r == ExecutionEngine.StopReason.INVALID_OPCODE
+                    || r == ExecutionEngine.StopReason.BREAKPOINT){
+                stopReason = r;
+                isRunning = false;
+                break;
+            }
+
+            if(hitrost > 0){
+                long rok = zacetek + (long) ((double) izvedeno * NANOS / hitrost);
+                long cakaj = rok - System.nanoTime();
+                if(cakaj > 0)
+                    LockSupport.parkNanos(this, cakaj);
+            }
         }
+        engine.flushDevices(); // ustavljen s stop()
     }
 
     public boolean isRunning(){
         return isRunning;
     }
-    public int getSpeed(){
+    public boolean isPaused(){
+        return isPaused;
+    }
+    //zakaj se je ura sama ustavila (null, ce tece ali jo je ustavil stop)
+    public ExecutionEngine.StopReason getStopReason(){
+        return stopReason;
+    }
+    public long getSpeed(){
         return speed;
     }
-    public void setSpeed(int speed){
+    public void setSpeed(long speed){
         this.speed = speed;
     }
 }
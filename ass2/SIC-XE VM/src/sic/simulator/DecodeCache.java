@@ -0,0 +1,102 @@
+package sic.simulator;
+
+import java.util.Arrays;
+
+//predpomnilnik dekodiranih ukazov, indeksiran z naslovom ukaza (PC)
+//vnos je en long: veljavnost | zdruzeni ukaz (Fusion) | dolzina | zastavice | prvi bajt (opcode z n,i) | operand
+//operand je pri F2 bajt r1r2, pri F3/F4 naslov brez B in X (PC relativno je ze preracunano, ker je PC znan)
+//strani se alocirajo sele ko na njih dekodiramo ukaz, zato je cena sorazmerna s kodo programa
+public class DecodeCache implements Memory.WriteListener{
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    //najdaljsi ukaz (F4), pisanje v bajt lahko pokvari ukaze, ki se zacnejo do 3 bajte prej
+    public static final int MAX_LEN = 4;
+    //zdruzen ukaz na naslovu je odvisen od do treh ukazov za njim, zato pisanje razveljavi vse do 11 bajtov nazaj
+    public static final int MAX_SPAN = 3 * MAX_LEN;
+
+    //zastavice, ki jih je treba upostevati ob izvajanju
+    public static final int BASE = 0x1; // + B
+    public static final int INDEX = 0x2; // + X
+    public static final int BAD = 0x4; // en neveljaven nacin naslavljanja
+    public static final int BAD2 = 0x8; // se drugi (npr. F3 z b in p ter indeksno posredno)
+
+    private static final long VALID = 1L << 63;
+
+    private final long[][] pages;
+    //indeksi alociranih strani, da kopija in brisanje ne gresta cez vse strani
+    private int[] alocirane = new int[8];
+    private int stAlociranih;
+
+    public DecodeCache(int size){
+        pages = new long[(size + PAGE_SIZE - 1) >> PAGE_BITS][];
+    }
+
+    //kopija (za Machine.fork), da otrok ne dekodira znova
+    public DecodeCache(DecodeCache other){
+        pages = new long[other.pages.length][];
+        alocirane = other.alocirane.clone();
+        stAlociranih = other.stAlociranih;
+        for(int i = 0; i < stAlociranih; i++)
+            pages[alocirane[i]] = other.pages[alocirane[i]].clone();
+    }
+
+    //0 pomeni, da ukaz na tem naslovu se ni dekodiran
+    public long get(int addr){
+        long[] page = pages[addr >>> PAGE_BITS];
+        return page == null ? 0 : page[addr & PAGE_MASK];
+    }
+
+    public void put(int addr, long decoded){
+        long[] page = pages[addr >>> PAGE_BITS];
+        if(page == null){
+            page = new long[PAGE_SIZE];
+            pages[addr >>> PAGE_BITS] = page;
+            if(stAlociranih == alocirane.length)
+                alocirane = Arrays.copyOf(alocirane, stAlociranih * 2);
+            alocirane[stAlociranih++] = addr >>> PAGE_BITS;
+        }
+        page[addr & PAGE_MASK] = decoded;
+    }
+
+    public static long pack(int opcode, int length, int flags, int operand){
+        return VALID | (long) length << 48 | (long) flags << 40 | (long) (opcode & 0xFF) << 32 | operand & 0xFFFFFFFFL;
+    }
+
+    public static long withFusion(long decoded, int fusion){
+        return decoded | (long) fusion << 52;
+    }
+
+    public static int fusion(long decoded){ return (int) (decoded >>> 52) & 0xF; }
+    public static int opcode(long decoded){ return (int) (decoded >>> 32) & 0xFF; }
+    public static int length(long decoded){ return (int) (decoded >>> 48) & 0x7; }
+    public static int flags(long decoded){ return (int) (decoded >>> 40) & 0xFF; }
+    public static int operand(long decoded){ return (int) decoded; }
+
+    //zapis v pomnilnik razveljavi vse ukaze, ki pokrivajo spremenjene bajte (samospreminjajoca koda)
+    @Override
+    public void written(int addr, int len){
+        int from = Math.max(0, addr - MAX_SPAN + 1);
+        int to = addr + len;
+        //po straneh, da je tudi obvestilo za celo stran (Memory.restore) poceni
+        while(from < to){
+            int konec = Math.min(to, (from | PAGE_MASK) + 1);
+            long[] page = pages[from >>> PAGE_BITS];
+            if(page != null)
+                Arrays.fill(page, from & PAGE_MASK, ((konec - 1) & PAGE_MASK) + 1, 0);
+            from = konec;
+        }
+    }
+
+    @Override
+    public void cleared(){
+        clear();
+    }
+
+    //strani obdrzimo in jih samo pobrisemo, da ponovni zagon istega programa ne alocira
+    public void clear(){
+        for(int i = 0; i < stAlociranih; i++)
+            Arrays.fill(pages[alocirane[i]], 0);
+    }
+}
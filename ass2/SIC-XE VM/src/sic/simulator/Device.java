@@ -14,4 +14,37 @@ public class Device{
     public void write(byte data){
     }
 
+    //blokovni prenos za kanale (Channel), privzeto po en bajt; vrne stevilo prebranih bajtov
+    public int read(byte[] b, int off, int len){
+        for(int i = 0; i < len; i++)
+            b[off + i] = read();
+        return len;
+    }
+
+    public void write(byte[] b, int off, int len){
+        for(int i = 0; i < len; i++)
+            write(b[off + i]);
+    }
+
+    //pocaka, da je naprava pripravljena (test), najvec nanos ns; vrne test()
+    //privzeto ne caka, naprave, ki znajo javit pripravljenost (InputDevice), cakajo brez vrtenja
+    public boolean await(long nanos){
+        return test();
+    }
+
+    //polozaj v napravi (npr. odmik v datoteki) za checkpoint, -1 ce ga naprava nima
+    public long getPosition(){
+        return -1;
+    }
+
+    public void setPosition(long pos){
+    }
+
+    //izpise morebiten medpomnilnik (ob ustavitvi stroja ali cakanju na vhod)
+    public void flush(){
+    }
+
+    public void close(){
+    }
+
 }
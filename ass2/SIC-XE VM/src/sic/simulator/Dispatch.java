@@ -0,0 +1,64 @@
+package sic.simulator;
+
+//tabela za dekodiranje ukazov
+//256 vnosov, indeks je prvi bajt ukaza (pri F3/F4 skupaj z n in i biti), tako da format in handler dobimo z enim dostopom
+//handler je indeks veje v Machine.exec; en switch nad gostimi indeksi JIT prevede v tabelo skokov,
+//kar se je izkazalo hitreje od klica preko vmesnika (megamorfen klic pri vsakem ukazu)
+public class Dispatch{
+
+    public static final int F1 = 1;
+    public static final int F2 = 2;
+    public static final int F34 = 3; // F3 ali F4 (ali SIC), odloci bit e
+
+    public static final int INVALID = -1;
+
+    public static class Entry{
+        public final int format;
+        public final int opcode; // opcode brez n in i bitov, to se javi v curOp
+        public final int handler; // INVALID -> neveljaven opcode
+
+        Entry(int format, int opcode, int handler){
+            this.format = format;
+            this.opcode = opcode;
+            this.handler = handler;
+        }
+    }
+
+    public static final Entry[] TABLE = new Entry[256];
+
+    private static void f1(int opcode){
+        TABLE[opcode] = new Entry(F1, opcode, opcode);
+    }
+
+    private static void f2(int opcode){
+        TABLE[opcode] = new Entry(F2, opcode, opcode);
+    }
+
+    //F3/F4 ukazi zasedejo 4 zaporedne vnose, spodnja dva bita sta n in i
+    private static void f34(int opcode){
+        Entry e = new Entry(F34, opcode, opcode);
+        for(int ni = 0; ni < 4; ni++)
+            TABLE[opcode | ni] = e;
+    }
+
+    static{
+        //neznani opcodi se dekodirajo kot F3/F4 in javijo neveljaven opcode (kot prej)
+        for(int i = 0; i < 256; i++)
+            TABLE[i] = new Entry(F34, i & 0xFC, INVALID);
+
+        f1(Opcode.FIX); f1(Opcode.FLOAT); f1(Opcode.HIO); f1(Opcode.TIO); f1(Opcode.NORM); f1(Opcode.SIO);
+
+        f2(Opcode.ADDR); f2(Opcode.CLEAR); f2(Opcode.COMPR); f2(Opcode.DIVR); f2(Opcode.MULR); f2(Opcode.RMO);
+        f2(Opcode.SHIFTL); f2(Opcode.SHIFTR); f2(Opcode.SUBR); f2(Opcode.SVC); f2(Opcode.TIXR);
+
+        f34(Opcode.ADD); f34(Opcode.ADDF); f34(Opcode.AND); f34(Opcode.COMP); f34(Opcode.COMPF);
+        f34(Opcode.DIV); f34(Opcode.DIVF); f34(Opcode.J); f34(Opcode.JEQ); f34(Opcode.JGT);
+        f34(Opcode.JLT); f34(Opcode.JSUB); f34(Opcode.LDA); f34(Opcode.LDB); f34(Opcode.LDCH);
+        f34(Opcode.LDF); f34(Opcode.LDL); f34(Opcode.LDS); f34(Opcode.LDT); f34(Opcode.LDX);
+        f34(Opcode.LPS); f34(Opcode.MUL); f34(Opcode.MULF); f34(Opcode.OR); f34(Opcode.RSUB);
+        f34(Opcode.SSK); f34(Opcode.STA); f34(Opcode.STB); f34(Opcode.STCH); f34(Opcode.STF);
+        f34(Opcode.STI); f34(Opcode.STL); f34(Opcode.STS); f34(Opcode.STSW); f34(Opcode.STT);
+        f34(Opcode.STX); f34(Opcode.SUB); f34(Opcode.SUBF); f34(Opcode.TD); f34(Opcode.TIX);
+        f34(Opcode.WD); f34(Opcode.RD);
+    }
+}
@@ -0,0 +1,33 @@
+package sic.simulator;
+
+//izvajanje stroja v paketih ukazov; zanka je v izvajalniku (Machine, JitEngine), ne pri klicatelju,
+//tako da jo JVM prevede kot celoto
+//klicatelj (Clock, UI, Headless, Benchmark) dobi razlog ustavitve, stevilo izvedenih ukazov pa iz getExecuted
+public interface ExecutionEngine{
+
+    enum StopReason{
+        HALT, // skok sam nase (J halt), PC se ne spremeni vec
+        BREAKPOINT, // PC je prisel do naslova iz runUntil
+        BUDGET, // izvedenih je maxInstructions ukazov
+        INVALID_OPCODE, // neveljaven ukaz je bil preskocen, PC je za njim
+        IO_WAIT // TD je javil, da naprava ni pripravljena, program bo cakal nanjo
+    }
+
+    StopReason run(long maxInstructions);
+
+    //ustavi se, ko je PC enak pc (po vsaj enem ukazu), ali iz enakih razlogov kot run
+    StopReason runUntil(int pc, long maxInstructions);
+
+    default StopReason runUntil(int pc){
+        return runUntil(pc, Long.MAX_VALUE);
+    }
+
+    //en ukaz, brez zdruzevanja in prevedene kode; BUDGET pomeni, da se je normalno izvedel
+    StopReason step();
+
+    //stevilo ukazov, izvedenih v zadnjem klicu run, runUntil ali step
+    long getExecuted();
+
+    //izpise medpomnilnike izhodnih naprav; run to naredi sam ob vsakem razlogu razen BUDGET
+    void flushDevices();
+}
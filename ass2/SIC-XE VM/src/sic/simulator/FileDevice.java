@@ -1,21 +1,68 @@
 package sic.simulator;
 
-import java.io.FileNotFoundException;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
+//naprava nad datoteko, bere in pise skozi medpomnilnik (en FileChannel klic na SIZE bajtov namesto enega na bajt)
+//medpomnilnik je okno datoteke od odmika start, p je trenutni polozaj v njem
+//spremenjeni bajti (od dirtyOd do dirtyDo) se zapisejo ob flush, premiku okna, setPosition in close
+//blokovni prenos, flush, close in setPosition so synchronized, ker jih lahko hkrati klice kanal (Channel) in stroj
+//(npr. flushDevices ob ustavitvi); RD/WD po bajtih med prenosom na isti napravi niso dovoljeni, zato niso zaklenjeni
 public class FileDevice extends Device{
-    private RandomAccessFile file;
 
-    public FileDevice (String file, String mode) throws FileNotFoundException{
-        this.file = new RandomAccessFile(file, mode);
+    private static final int SIZE = 8192;
+
+    private final FileChannel file;
+    private final String ime, nacin; // za reopen
+    private final ByteBuffer buf = ByteBuffer.allocate(SIZE);
+    private long start; // odmik okna v datoteki
+    private int len; // veljavnih bajtov v oknu
+    private int p; // polozaj v oknu
+    private int dirtyOd = SIZE, dirtyDo;
+
+    //mode kot pri RandomAccessFile: "r" ali "rw"
+    public FileDevice (String file, String mode) throws IOException{
+        this.ime = file;
+        this.nacin = mode;
+        this.file = mode.contains("w")
+                ? FileChannel.open(Path.of(file), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(Path.of(file), StandardOpenOption.READ);
+    }
+
+    //premakne okno na trenutni polozaj in ga napolni iz datoteke
+    private void premakni() throws IOException {
+        zapisi();
+        start += p;
+        p = 0;
+        buf.clear();
+        int n = file.read(buf, start);
+        len = Math.max(n, 0);
+    }
+
+    private void zapisi() throws IOException {
+        if(dirtyOd < dirtyDo){
+            ByteBuffer b = buf.duplicate();
+            b.limit(dirtyDo).position(dirtyOd);
+            long kam = start + dirtyOd;
+            while(b.hasRemaining())
+                kam += file.write(b, kam);
+        }
+        dirtyOd = SIZE;
+        dirtyDo = 0;
     }
 
     @Override
     public byte read(){ //implementiraj custom exception
             try {
-                return (byte) this.file.readByte();
+                if(p >= len)
+                    premakni();
+                if(p >= len)
+                    throw new EOFException();
+                return buf.get(p++);
             } catch (IOException e) {
                 System.err.println("Error reading file");
             }
@@ -25,13 +72,100 @@ public class FileDevice extends Device{
     @Override
     public void write(byte data){ //implementiraj custom exception
         try{
-            this.file.writeByte(data);
+            if(p == SIZE)
+                premakni();
+            buf.put(p, data);
+            dirtyOd = Math.min(dirtyOd, p);
+            p++;
+            dirtyDo = Math.max(dirtyDo, p);
+            len = Math.max(len, p);
         } catch (IOException e){
             System.err.println("Error writing file");
         }
     }
 
-//    public void close(){ //implementiraj custom exception
-//        file.close();
-//    }
+    //blok gre naravnost iz okna/v okno; kratko branje pomeni konec datoteke
+    @Override
+    public synchronized int read(byte[] b, int off, int n){
+        int prebrano = 0;
+        try {
+            while(prebrano < n){
+                if(p >= len)
+                    premakni();
+                if(p >= len)
+                    break;
+                int k = Math.min(n - prebrano, len - p);
+                System.arraycopy(buf.array(), p, b, off + prebrano, k);
+                p += k;
+                prebrano += k;
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading file");
+        }
+        return prebrano;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int n){
+        try{
+            while(n > 0){
+                if(p == SIZE)
+                    premakni();
+                int k = Math.min(n, SIZE - p);
+                System.arraycopy(b, off, buf.array(), p, k);
+                dirtyOd = Math.min(dirtyOd, p);
+                p += k;
+                dirtyDo = Math.max(dirtyDo, p);
+                len = Math.max(len, p);
+                off += k;
+                n -= k;
+            }
+        } catch (IOException e){
+            System.err.println("Error writing file");
+        }
+    }
+
+    //ista datoteka s svojim FileChannel na istem polozaju (npr. za Machine.fork, da close ene ne zapre druge)
+    public synchronized FileDevice reopen() throws IOException {
+        zapisi(); // nova naprava mora videt, kar je ta ze napisala
+        FileDevice kopija = new FileDevice(ime, nacin);
+        kopija.start = getPosition();
+        return kopija;
+    }
+
+    @Override
+    public long getPosition(){
+        return start + p;
+    }
+
+    @Override
+    public synchronized void setPosition(long pos){
+        try{
+            zapisi();
+        } catch (IOException e){
+            System.err.println("Error writing file");
+        }
+        start = pos;
+        p = 0;
+        len = 0;
+    }
+
+    @Override
+    public synchronized void flush(){
+        try{
+            zapisi();
+        } catch (IOException e){
+            System.err.println("Error writing file");
+        }
+    }
+
+    @Override
+    public synchronized void close(){ //implementiraj custom exception
+        flush();
+        try{
+            file.close();
+        } catch (IOException e){
+            System.err.println("Error closing file");
+        }
+    }
 }
@@ -0,0 +1,88 @@
+package sic.simulator;
+
+//zdruzeni ukazi (superinstrukcije) za pogoste vzorce v SIC/XE programih
+//vzorec se prepozna ob dekodiranju prvega ukaza in se zapise v njegov vnos v DecodeCache
+//izvede jih samo Machine.run, korak (execute) gre vedno po en ukaz
+//zdruzijo se samo ukazi brez B, X in napak naslavljanja ter brez posrednega naslavljanja,
+//tako da so vsi naslovi znani ze ob dekodiranju in vmes ne more priti do izjeme
+public class Fusion{
+
+    public static final int NONE = 0;
+    public static final int LDA_ADD_STA = 1; // LDA x / ADD y / STA z
+    public static final int LDA_SUB_STA = 2; // LDA x / SUB y / STA z
+    public static final int TIX_JCC = 3; // TIX n / JLT (JEQ, JGT) zanka
+    public static final int COMP_JCC = 4; // COMP #k / JEQ (JLT, JGT)
+    public static final int TD_JEQ = 5; // TD dev / JEQ zanka, cakanje na napravo
+    public static final int COUNT = 6;
+
+    //stevilo ukazov v zdruzenem ukazu
+    public static final int[] LENGTH = {1, 3, 3, 2, 2, 2};
+    public static final String[] NAMES = {"", "LDA/ADD/STA", "LDA/SUB/STA", "TIX/Jxx", "COMP/Jxx", "TD/JEQ"};
+
+    //vrne vrsto zdruzenega ukaza za prve tri dekodirane ukaze (format vnosov je v DecodeCache), ali NONE
+    //naslovi operandov morajo bit znotraj pomnilnika velikosti size, da se izognemo izjemam sredi zdruzenega ukaza
+    public static int match(long prvi, long drugi, long tretji, int size){
+        if(DecodeCache.flags(prvi) != 0 || DecodeCache.flags(drugi) != 0)
+            return NONE;
+        switch(handler(prvi)){
+            case Opcode.LDA:
+                if(!value(prvi, size) || !value(drugi, size) || !store(tretji, size))
+                    return NONE;
+                if(handler(drugi) == Opcode.ADD)
+                    return LDA_ADD_STA;
+                if(handler(drugi) == Opcode.SUB)
+                    return LDA_SUB_STA;
+                return NONE;
+            case Opcode.TIX:
+                return value(prvi, size) && jump(drugi) ? TIX_JCC : NONE;
+            case Opcode.COMP:
+                return value(prvi, size) && jump(drugi) ? COMP_JCC : NONE;
+            case Opcode.TD:
+                return device(prvi, size) && jump(drugi) && handler(drugi) == Opcode.JEQ ? TD_JEQ : NONE;
+        }
+        return NONE;
+    }
+
+    private static int handler(long ukaz){
+        return Dispatch.TABLE[DecodeCache.opcode(ukaz)].handler;
+    }
+
+    private static int ni(long ukaz){
+        return DecodeCache.opcode(ukaz) & Machine.NI;
+    }
+
+    //operand je takojsnji ali beseda na znanem naslovu
+    private static boolean value(long ukaz, int size){
+        int ni = ni(ukaz);
+        int addr = DecodeCache.operand(ukaz);
+        return ni == Machine.TAKOJSNJE || (ni == Machine.PREPROSTO && addr >= 0 && addr + 3 <= size);
+    }
+
+    private static boolean store(long ukaz, int size){
+        int addr = DecodeCache.operand(ukaz);
+        return handler(ukaz) == Opcode.STA && DecodeCache.flags(ukaz) == 0
+                && ni(ukaz) == Machine.PREPROSTO && addr >= 0 && addr + 3 <= size;
+    }
+
+    //pogojni skok z znanim ciljem
+    private static boolean jump(long ukaz){
+        int h = handler(ukaz);
+        return (h == Opcode.JEQ || h == Opcode.JGT || h == Opcode.JLT) && ni(ukaz) != Machine.POSREDNO;
+    }
+
+    //stevilka naprave mora bit veljavna, sicer naj izjemo vrze obicajno izvajanje
+    private static boolean device(long ukaz, int size){
+        int ni = ni(ukaz);
+        int op = DecodeCache.operand(ukaz);
+        return (ni == Machine.TAKOJSNJE && op >= 0 && op < 256) || (ni == Machine.PREPROSTO && op >= 0 && op < size);
+    }
+
+    //pogoj skoka kot vrednost SW, pri kateri se skok izvede
+    public static int condition(int handler){
+        switch(handler){
+            case Opcode.JEQ: return 0x40;
+            case Opcode.JGT: return 0x80;
+            default: return 0x00; // JLT
+        }
+    }
+}
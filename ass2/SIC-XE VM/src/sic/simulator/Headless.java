@@ -0,0 +1,164 @@
+package sic.simulator;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+//zagon brez graficnega vmesnika, za batch/CI masine brez zaslona
+//namenoma ne uporablja nicesar iz sic.simulator.UI, da se AWT/Swing sploh ne nalozi
+public class Headless{
+
+    //z --checkpoint se stanje shrani vsakih toliko ukazov in ob koncu
+    private static final long AUTOSAVE = 50_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        boolean jit = false;
+        Path slika = null; // --image: pomnilnik v preslikani datoteki, ki po koncu ostane na disku
+        Path checkpoint = null; // --checkpoint: nadaljuj iz datoteke, ce obstaja, in jo sproti shranjuj
+        //brez zaslona je pomembna prepustnost, zato se izhod izpise sele, ko je medpomnilnik poln (ali ob ustavitvi)
+        OutputDevice.Flush flush = OutputDevice.Flush.FULL;
+        long interval = -1;
+        boolean profil = false; // --profile: porocilo o vrocih naslovih in ukazih na koncu
+        Path klici = null; // --callgraph: collapsed stacks za flame graph (vkljuci tudi profil)
+        int vzorci = 0; // --sample hz: vzorcni profil iz druge niti, izvajanje ostane enako hitro
+        Path sled = null; // --trace: binarna sled vseh ukazov (izpise jo TraceDump)
+        int i = 0;
+        while(i < args.length && args[i].startsWith("--")){
+            if(args[i].equals("--jit"))
+                jit = true;
+            else if(args[i].equals("--image") && i + 1 < args.length)
+                slika = Path.of(args[++i]);
+            else if(args[i].equals("--profile"))
+                profil = true;
+            else if(args[i].equals("--callgraph") && i + 1 < args.length){
+                klici = Path.of(args[++i]);
+                profil = true;
+            }
+            else if(args[i].equals("--trace") && i + 1 < args.length)
+                sled = Path.of(args[++i]);
+            else if(args[i].equals("--sample") && i + 1 < args.length)
+                vzorci = Integer.parseInt(args[++i]);
+            else if(args[i].equals("--checkpoint") && i + 1 < args.length)
+                checkpoint = Path.of(args[++i]);
+            else if(args[i].equals("--flush") && i + 1 < args.length){
+                //newline, full, halt ali interval[:ms]
+                String[] p = args[++i].split(":");
+                flush = OutputDevice.Flush.valueOf(p[0].toUpperCase());
+                if(p.length > 1)
+                    interval = Long.parseLong(p[1]);
+            }
+            else
+                break;
+            i++;
+        }
+        args = Arrays.copyOfRange(args, i, args.length);
+        if(args.length < 1){
+            System.err.println("Uporaba: java sic.simulator.Headless [--jit] [--image slika.mem] [--checkpoint stanje.chk] [--flush newline|full|halt|interval[:ms]] [--profile] [--callgraph klici.folded] [--sample hz] [--trace sled.trc] <datoteka.obj> [maks. stevilo ukazov]");
+            System.exit(2);
+        }
+        long budget = Long.MAX_VALUE;
+        if(args.length > 1){
+            budget = Long.parseLong(args[1]);
+        }
+
+        MappedMemory mm = slika == null ? null : MappedMemory.open(slika, Machine.MAX_ADDR);
+        Machine m = mm == null ? new Machine() : new Machine(mm);
+        for(int d = 1; d <= 2; d++){
+            m.setPolicy(d, flush);
+            if(interval >= 0)
+                ((OutputDevice) m.getDevice(d)).setInterval(interval);
+        }
+        try(Reader r = new BufferedReader(new FileReader(args[0]))){
+            if(!Utils.loadSection(m, r)){
+                System.err.println("Napaka pri nalaganju " + args[0]);
+                System.exit(1);
+            }
+        }
+        if(checkpoint != null && Files.exists(checkpoint)){
+            Checkpoint.load(m, checkpoint);
+            System.err.println("Nadaljujem iz " + checkpoint);
+        }
+
+        //oznake iz .lst ob .obj, ce ga je assembler zapisal
+        Symbols oznake = new Symbols();
+        Path lst = Path.of(args[0].replaceFirst("\\.obj$", "") + ".lst");
+        if((profil || vzorci > 0) && Files.exists(lst))
+            oznake = Symbols.load(lst);
+        if(profil){
+            Profiler p = new Profiler(m.mem.size());
+            p.setSymbols(oznake);
+            if(klici != null)
+                p.enableCallGraph();
+            m.setProfiler(p);
+        }
+
+        if(sled != null)
+            m.setTrace(new Trace(sled));
+
+        ExecutionEngine engine = m;
+        if(jit && JitEngine.isAvailable()){
+            engine = new JitEngine(m);
+        }
+        long executed = 0;
+        ExecutionEngine.StopReason razlog;
+        Sampler sampler = vzorci > 0 ? new Sampler(m, vzorci) : null;
+        if(sampler != null)
+            sampler.start();
+        long start = System.nanoTime();
+        do{
+            //IO_WAIT samo pomeni, da program caka na napravo, zato nadaljujemo
+            long paket = budget - executed;
+            if(checkpoint != null)
+                paket = Math.min(paket, AUTOSAVE);
+            razlog = engine.run(paket);
+            executed += engine.getExecuted();
+            //ob cakanju na napravo ne shranjujemo, ker je lahko zelo pogosto
+            if(checkpoint != null && (razlog != ExecutionEngine.StopReason.IO_WAIT || executed >= budget))
+                Checkpoint.save(m, checkpoint, true);
+        } while((razlog == ExecutionEngine.StopReason.IO_WAIT || (checkpoint != null && razlog == ExecutionEngine.StopReason.BUDGET))
+                && executed < budget);
+        engine.flushDevices(); // ce je zmanjkalo ukazov
+        long elapsed = System.nanoTime() - start;
+        if(sampler != null)
+            sampler.stop();
+        if(m.getTrace() != null){
+            m.getTrace().close(); // ostanek sledi se zapise sele tu, zato ni vstet v cas
+            System.err.printf("Sled: %d ukazov v %s%n", m.getTrace().getRecords(), sled);
+        }
+
+        //porocilo gre na stderr, da se ne mesa z izhodom programa na stdout (naprava 1)
+        System.err.println(report(executed, elapsed, razlog));
+        if(engine instanceof JitEngine){
+            JitEngine j = (JitEngine) engine;
+            System.err.printf("JIT: %d blokov, %d ukazov v prevedeni kodi%n", j.getCompiledBlocks(), j.getJittedInstructions());
+        }
+        System.err.print(m.regs.toString());
+        if(m.getProfiler() != null)
+            m.getProfiler().report(System.err, m.mem, 20);
+        if(sampler != null)
+            sampler.report(System.err, m.mem, oznake, 20);
+        if(klici != null){
+            try(Writer w = Files.newBufferedWriter(klici)){
+                m.getProfiler().getCallGraph().writeCollapsed(w, m.getProfiler());
+            }
+        }
+        if(mm != null)
+            mm.close();
+        for(int f = 1; f < Fusion.COUNT; f++){
+            if(m.getFusionCount(f) > 0)
+                System.err.printf("%-12s %d%n", Fusion.NAMES[f], m.getFusionCount(f));
+        }
+    }
+
+    static String report(long executed, long elapsedNanos, ExecutionEngine.StopReason razlog){
+        double seconds = elapsedNanos / 1e9;
+        double mips = seconds > 0 ? executed / seconds / 1e6 : 0;
+        return String.format("%s: %d ukazov, %.3f ms, %.2f MIPS",
+                razlog, executed, elapsedNanos / 1e6, mips);
+    }
+}
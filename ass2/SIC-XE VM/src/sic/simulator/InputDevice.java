@@ -2,34 +2,138 @@ package sic.simulator;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.locks.LockSupport;
 
+//vhod bere nit v ozadju in ga v paketih odlaga v obroc (en pisec, en bralec, brez zaklepanja)
+//TD je samo branje volatile stevca, RD vzame bajt iz obroca; nit se zazene ob prvem TD/RD
 public class InputDevice extends Device{
 
+    private static final int SIZE = 1 << 16; // potenca 2
+    private static final int MASK = SIZE - 1;
+
     private InputStream input;
+    private final byte[] obroc = new byte[SIZE];
+    //head premika samo nit v ozadju, tail samo stroj; vsebina obroca je vidna po branju head
+    private volatile long head;
+    private volatile long tail;
+    private long znanHead; // zadnji prebran head, da TD ne bere volatile, ce je se kaj v obrocu
+    private volatile boolean konec; // EOF ali napaka, za zadnjim bajtom ne bo nic vec
+    private volatile Thread cakalec; // stroj, ki v RD caka na podatke
+    private volatile Thread bralec;
 
 
     public InputDevice(InputStream input){
         this.input = input;
     }
-    @Override
-    public byte read(){ //implementiraj custom exception
+
+    private synchronized void zazeni(){
+        if(bralec != null)
+            return;
+        bralec = new Thread(this::beri, "sic-input");
+        bralec.setDaemon(true); // blokiran read na System.in ne sme drzat JVM
+        bralec.start();
+    }
+
+    //nit v ozadju: bere kolikor je na voljo (do prostora v obrocu) in objavi nov head
+    private void beri(){
+        byte[] paket = new byte[4096];
         try {
-            return (byte) ((this.input.read()) & 0xFF); //reži
+            while(true){
+                long h = head;
+                int prosto = (int) (SIZE - (h - tail));
+                if(prosto == 0){
+                    LockSupport.parkNanos(100_000); // poln obroc, stroj ne bere
+                    continue;
+                }
+                int n = input.read(paket, 0, Math.min(prosto, paket.length));
+                if(n < 0)
+                    break;
+                for(int i = 0; i < n; i++)
+                    obroc[(int) (h + i) & MASK] = paket[i];
+                head = h + n;
+                Thread t = cakalec;
+                if(t != null)
+                    LockSupport.unpark(t);
+            }
         } catch (IOException e) {
-            System.out.println("Error reading input.");
+            System.err.println("Error reading input.");
         }
-        return 0;
+        konec = true;
+        Thread t = cakalec;
+        if(t != null)
+            LockSupport.unpark(t);
     }
 
     @Override
-    public boolean test(){
-        try {
-            if(this.input.available() > 0)
-                return true;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    public byte read(){ //implementiraj custom exception
+        if(bralec == null)
+            zazeni();
+        long t = tail;
+        if(t >= znanHead){ // kanal je lahko bral naprej od znanHead
+            //prazen obroc: kot prej blokira, dokler ne pride bajt ali EOF
+            cakalec = Thread.currentThread();
+            while((znanHead = head) == t && !konec)
+                LockSupport.park(this);
+            cakalec = null;
+            if((znanHead = head) == t)
+                return (byte) 0xFF; // EOF, kot read() == -1
         }
-        return false;
+        byte b = obroc[(int) t & MASK];
+        tail = t + 1;
+        return b;
+    }
+
+    //blokovno branje (kanal): caka, dokler ne prebere len bajtov ali pride do EOF
+    //obroc ima se vedno enega bralca, zato naj program med prenosom ne uporablja RD na tej napravi
+    @Override
+    public int read(byte[] b, int off, int len){
+        if(bralec == null)
+            zazeni();
+        int prebrano = 0;
+        cakalec = Thread.currentThread();
+        while(prebrano < len){
+            long t = tail;
+            long h = head;
+            if(h == t){
+                if(konec)
+                    break;
+                LockSupport.park(this);
+                continue;
+            }
+            int k = (int) Math.min(len - prebrano, h - t);
+            k = Math.min(k, SIZE - ((int) t & MASK)); // do konca obroca, ostalo v naslednjem krogu
+            System.arraycopy(obroc, (int) t & MASK, b, off + prebrano, k);
+            tail = t + k;
+            prebrano += k;
+        }
+        cakalec = null;
+        return prebrano;
+    }
+
+    //nit stroja spi, dokler bralec ne objavi novih podatkov (unpark) ali ne poteče cas
+    //po EOF naprava ne bo vec pripravljena, zato se prespi ves cas
+    @Override
+    public boolean await(long nanos){
+        if(test())
+            return true;
+        long rok = System.nanoTime() + nanos;
+        cakalec = Thread.currentThread();
+        long ostane;
+        while(head == tail && (ostane = rok - System.nanoTime()) > 0)
+            LockSupport.parkNanos(this, ostane);
+        cakalec = null;
+        return test();
+    }
+
+    @Override
+    public boolean test(){
+        if(bralec == null)
+            zazeni();
+        long t = tail;
+        if(t < znanHead)
+            return true;
+        znanHead = head;
+        return t != znanHead;
     }
 
 }
@@ -0,0 +1,34 @@
+package sic.simulator;
+
+//prekinitve SIC/XE: razredi, delovna podrocja in polja v SW
+//SW (24 bitov): MODE | IDLE | ID (4) | ... | MASK (4) | CC (2) | ICODE (6)
+//CC ostane v spodnjem bajtu (0x00/0x40/0x80), kot ga nastavljajo primerjave, zato je ICODE samo 6 biten
+//MODE, IDLE in ID se shranjujejo in nalagajo, simulator pa jih ne uporablja (ni privilegiranih ukazov)
+//ob prekinitvi razreda k se stanje (SW z ICODE, PC, A, X, L, B, S, T, F) shrani v delovno podrocje WORK_AREA[k] + OLD_SW,
+//nov SW in PC pa se prebereta iz WORK_AREA[k] + NEW_SW in + NEW_PC; rutina se vrne z LPS WORK_AREA[k] + OLD_SW
+public class Interrupt{
+
+    //razredi po prioriteti (0 je najvisja)
+    public static final int SVC = 0; // ukaz SVC n, ICODE = n
+    public static final int PROGRAM = 1; // neveljaven ukaz, ICODE = ILLEGAL_INSTRUCTION
+    public static final int TIMER = 2; // casovnik (STI) je prisel do 0
+    public static final int IO = 3; // kanal je koncal, ICODE = stevilka kanala
+    public static final int COUNT = 4;
+
+    public static final int[] WORK_AREA = {0x100, 0x130, 0x160, 0x190};
+    public static final int NEW_SW = 0;
+    public static final int NEW_PC = 3;
+    public static final int OLD_SW = 6; // sledijo PC, A, X, L, B, S, T (po 3 bajte) in F (6 bajtov), kot jih bere LPS
+    public static final int STATE_SIZE = 30;
+
+    public static final int MASK = 0x000F00; // bit razreda k je 0x800 >> k, 1 pomeni dovoljeno
+    public static final int ICODE = 0x00003F;
+
+    public static final int ILLEGAL_INSTRUCTION = 0x00;
+
+    public static final String[] NAMES = {"SVC", "program", "casovnik", "I/O"};
+
+    public static int maskBit(int razred){
+        return 0x800 >> razred;
+    }
+}
@@ -0,0 +1,491 @@
+package sic.simulator;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//stopenjski izvajalnik: tolmac (Machine.execute) + prevajanje vrocih osnovnih blokov v JVM razrede
+//steje vstope v bloke (naslov za skokom), ko blok preseze THRESHOLD, se iz njega zgenerira java razred,
+//ki ga v ozadju prevede javac (javax.tools) in se nalozi kot hidden class v paket sic.simulator,
+//tako da direktno dela z Register.registers, pomnilnik bere preko Memory.getWord/getByte
+//I/O, F1, float in ukazi z napacnim naslavljanjem se ne prevajajo, tam ostane tolmac
+//ko se spremeni kateri od bajtov bloka (samospreminjajoca koda), se blok zavrze
+public class JitEngine implements ExecutionEngine, Memory.WriteListener{
+
+    //prevedena koda enega bloka
+    public interface Code{
+        //izvede blok, nastavi PC in curOp, vrne stevilo izvedenih ukazov
+        int run(Machine m, int[] r, Memory mem, Block self);
+    }
+
+    public static class Block{
+        final int start;
+        final int end; // prvi bajt za blokom
+        final int length; // stevilo ukazov
+        volatile Code code;
+        volatile boolean failed;
+        boolean invalid; // spreminja in bere samo nit, ki izvaja stroj
+
+        Block(int start, int end, int length){
+            this.start = start;
+            this.end = end;
+            this.length = length;
+        }
+    }
+
+    public static final int THRESHOLD = 1000;
+    private static final int MAX_BLOCK = 64;
+    private static final int MASK = 0xFFFFFF;
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    //ukazi, ki koncajo osnovni blok (po opcode brez n in i)
+    private static final boolean[] TERMINATOR = new boolean[256];
+    static{
+        TERMINATOR[Opcode.J] = true;
+        TERMINATOR[Opcode.JEQ] = true;
+        TERMINATOR[Opcode.JGT] = true;
+        TERMINATOR[Opcode.JLT] = true;
+        TERMINATOR[Opcode.JSUB] = true;
+        TERMINATOR[Opcode.RSUB] = true;
+    }
+
+    private static final JavaCompiler JAVAC = ToolProvider.getSystemJavaCompiler();
+    private static ExecutorService compiler;
+
+    private final Machine m;
+    private final int[][] counts;
+    private final Block[][] blocks;
+    private final boolean[][] covered; // bajti, ki jih pokriva kaksen blok
+    private final List<Block> active = new ArrayList<>();
+    private long executed;
+    private long compiled;
+    private long invalidated;
+    private long jitted; // ukazi izvedeni v prevedeni kodi
+
+    public JitEngine(Machine m){
+        this.m = m;
+        int strani = (m.mem.size() + PAGE_SIZE - 1) >> PAGE_BITS;
+        counts = new int[strani][];
+        blocks = new Block[strani][];
+        covered = new boolean[strani][];
+        m.mem.addWriteListener(this);
+    }
+
+    //ali je prevajanje sploh na voljo (na JRE brez javac ni)
+    public static boolean isAvailable(){
+        return JAVAC != null;
+    }
+
+    @Override
+    public StopReason run(long maxInstructions){
+        long n = 0;
+        StopReason razlog = StopReason.BUDGET;
+        while(n < maxInstructions){
+            //vsak obhod se zacne na zacetku osnovnega bloka (tolmac spodaj se ustavi za skokom)
+            int pc = m.regs.getPC();
+            //s profilom ali sledjo tece samo tolmac, da se vidi vsak ukaz
+            if(JAVAC != null && !m.observed()){
+                Block b = block(pc);
+                if(b == null){
+                    if(count(pc) == THRESHOLD)
+                        compile(pc);
+                }
+                else if(!b.invalid){
+                    Code code = b.code;
+                    //blok ne sme it cez budget ali prekinitev casovnika
+                    if(code != null && maxInstructions - n >= b.length && m.timerLeft() >= b.length){
+                        m.executing(b.start, b.length);
+                        int k = code.run(m, m.regs.registers, m.mem, b);
+                        n += k;
+                        jitted += k;
+                        m.tick(k);
+                        continue;
+                    }
+                }
+            }
+            //tolmac do konca osnovnega bloka, da za skokom preverimo, ali smo na zacetku prevedenega bloka
+            StopReason r = m.runBlock(maxInstructions - n, TERMINATOR);
+            n += m.getExecuted();
+            if(r != StopReason.BUDGET){
+                razlog = r;
+                break;
+            }
+        }
+        executed = n;
+        return razlog;
+    }
+
+    //prevedeni bloki lahko preskocijo prekinitveno tocko, zato runUntil in step izvede tolmac
+    @Override
+    public StopReason runUntil(int pc, long maxInstructions){
+        StopReason r = m.runUntil(pc, maxInstructions);
+        executed = m.getExecuted();
+        return r;
+    }
+
+    @Override
+    public StopReason step(){
+        StopReason r = m.step();
+        executed = m.getExecuted();
+        return r;
+    }
+
+    @Override
+    public long getExecuted(){
+        return executed;
+    }
+
+    @Override
+    public void flushDevices(){
+        m.flushDevices();
+    }
+
+    public long getCompiledBlocks(){ return compiled; }
+    public long getInvalidatedBlocks(){ return invalidated; }
+    public long getJittedInstructions(){ return jitted; }
+
+    public void close(){
+        m.mem.removeWriteListener(this);
+        cleared();
+    }
+
+    private Block block(int pc){
+        Block[] page = blocks[pc >>> PAGE_BITS];
+        return page == null ? null : page[pc & PAGE_MASK];
+    }
+
+    private int count(int pc){
+        int[] page = counts[pc >>> PAGE_BITS];
+        if(page == null){
+            page = new int[PAGE_SIZE];
+            counts[pc >>> PAGE_BITS] = page;
+        }
+        return ++page[pc & PAGE_MASK];
+    }
+
+    private void setBlock(int pc, Block b){
+        Block[] page = blocks[pc >>> PAGE_BITS];
+        if(page == null){
+            page = new Block[PAGE_SIZE];
+            blocks[pc >>> PAGE_BITS] = page;
+        }
+        page[pc & PAGE_MASK] = b;
+    }
+
+    //poisce osnovni blok od pc naprej (na niti stroja, da beremo konsistenten pomnilnik) in ga da v prevajanje
+    private void compile(int pc){
+        long[] ukazi = new long[MAX_BLOCK];
+        int n = 0;
+        int a = pc;
+        while(n < MAX_BLOCK){
+            long d = m.decoded(a);
+            if(!supported(d))
+                break;
+            ukazi[n++] = d;
+            a += DecodeCache.length(d);
+            if(TERMINATOR[Dispatch.TABLE[DecodeCache.opcode(d)].opcode])
+                break;
+        }
+        //prazen blok in skok sam vase (J halt) ostaneta tolmacu, ki zazna halt
+        boolean prazen = n == 0 || (n == 1 && TERMINATOR[Dispatch.TABLE[DecodeCache.opcode(ukazi[0])].opcode]
+                && DecodeCache.flags(ukazi[0]) == 0 && DecodeCache.operand(ukazi[0]) == pc);
+        //tudi tak blok pokriva svoj prvi ukaz, da ga zapis vanj razveljavi in se lahko prevede znova
+        int konec = n == 0 ? Math.min(pc + Math.max(1, DecodeCache.length(m.decoded(pc))), m.mem.size()) : a;
+        Block b = new Block(pc, konec, n);
+        setBlock(pc, b);
+        for(int i = pc; i < konec; i++){
+            boolean[] page = covered[i >>> PAGE_BITS];
+            if(page == null){
+                page = new boolean[PAGE_SIZE];
+                covered[i >>> PAGE_BITS] = page;
+            }
+            page[i & PAGE_MASK] = true;
+        }
+        active.add(b);
+        if(prazen){
+            b.failed = true;
+            return;
+        }
+        compiled++;
+        String src = generate(pc, Arrays.copyOf(ukazi, n));
+        compiler().submit(() -> {
+            try {
+                b.code = define(src);
+            } catch (Throwable e) {
+                b.failed = true;
+                System.err.println("JIT: napaka pri prevajanju bloka " + Integer.toHexString(pc) + ": " + e);
+            }
+        });
+    }
+
+    private static synchronized ExecutorService compiler(){
+        if(compiler == null){
+            compiler = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "sic-jit");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return compiler;
+    }
+
+    private static boolean supported(long d){
+        int opcode = DecodeCache.opcode(d);
+        Dispatch.Entry e = Dispatch.TABLE[opcode];
+        if(e.handler == Dispatch.INVALID)
+            return false;
+        int flags = DecodeCache.flags(d);
+        if((flags & (DecodeCache.BAD | DecodeCache.BAD2)) != 0)
+            return false;
+        if(e.format == Dispatch.F2){
+            int op = DecodeCache.operand(d);
+            //F in 7 sta za tolmaca neveljavna, PC se v bloku ne posodablja (zapis vanj pa je skok);
+            //preverja se tudi pri SHIFT in TIXR, kjer drugi del ni register, take ukaze raje izvede tolmac
+            if(!f2(op >> 4) || !f2(op & 0xF))
+                return false;
+        }
+        switch(e.opcode){
+            case Opcode.ADDR: case Opcode.SUBR: case Opcode.MULR: case Opcode.DIVR: case Opcode.CLEAR:
+            case Opcode.RMO: case Opcode.COMPR: case Opcode.TIXR: case Opcode.SHIFTL: case Opcode.SHIFTR:
+            case Opcode.ADD: case Opcode.SUB: case Opcode.MUL: case Opcode.DIV: case Opcode.AND: case Opcode.OR:
+            case Opcode.COMP: case Opcode.TIX:
+            case Opcode.LDA: case Opcode.LDB: case Opcode.LDL: case Opcode.LDS: case Opcode.LDT: case Opcode.LDX:
+            case Opcode.LDCH:
+            case Opcode.STA: case Opcode.STB: case Opcode.STL: case Opcode.STS: case Opcode.STT: case Opcode.STX:
+            case Opcode.STSW: case Opcode.STCH:
+            case Opcode.J: case Opcode.JEQ: case Opcode.JGT: case Opcode.JLT: case Opcode.JSUB: case Opcode.RSUB:
+                return true;
+            default:
+                return false; // I/O, F1, float, SVC, LPS, STI, SSK
+        }
+    }
+
+    private static boolean f2(int reg){
+        return Register.isWord(reg) && reg != Register.PC;
+    }
+
+    //pomozne metode za prevedeno kodo
+    static int cc(int a, int b){ //0x0, 0x40 in 0x80 manjše, enako, večje
+        if(a < b) return 0x00;
+        else if(a > b) return 0x80;
+        return 0x40;
+    }
+
+    //java izvorna koda za blok; semantika ukazov je ista kot v Machine.exec
+    private static String generate(int pc, long[] ukazi){
+        StringBuilder sb = new StringBuilder();
+        sb.append("package sic.simulator;\n");
+        sb.append("public final class JitBlock implements JitEngine.Code {\n");
+        sb.append("  public int run(Machine m, int[] r, Memory mem, JitEngine.Block self) {\n");
+        sb.append("    int ip = 0;\n");
+        sb.append("    try {\n");
+        int a = pc;
+        int[] next = new int[ukazi.length];
+        int[] curOp = new int[ukazi.length];
+        boolean konec = false;
+        for(int i = 0; i < ukazi.length; i++){
+            long d = ukazi[i];
+            int opcode = DecodeCache.opcode(d);
+            Dispatch.Entry e = Dispatch.TABLE[opcode];
+            int ni = opcode & Machine.NI;
+            int op = DecodeCache.operand(d);
+            int flags = DecodeCache.flags(d);
+            int nx = (a + DecodeCache.length(d)) & MASK;
+            next[i] = nx;
+            curOp[i] = e.opcode;
+            String ea = String.valueOf(op);
+            if((flags & DecodeCache.BASE) != 0) ea += " + r[3]";
+            if((flags & DecodeCache.INDEX) != 0) ea += " + r[1]";
+            String val; // vrednost operanda (naslavljanje)
+            String target; // ciljni naslov za skoke in store
+            if(ni == Machine.POSREDNO){
+                val = "mem.getWord(mem.getWord(" + ea + "))";
+                target = "mem.getWord(" + ea + ")";
+            }
+            else if(ni == Machine.PREPROSTO){
+                val = "mem.getWord(" + ea + ")";
+                target = "(" + ea + ")";
+            }
+            else{
+                val = "(" + ea + ")";
+                target = "(" + ea + ")";
+            }
+            int r1 = op >> 4;
+            int r2 = op & 0xF;
+            int i1 = Register.index(r1); // indeksa v registers (PC in SW nista na svojih stevilkah)
+            int i2 = Register.index(r2);
+            String store = null;
+            sb.append("      ip = ").append(i).append("; // ")
+                    .append(Integer.toHexString(a)).append(' ').append(Opcode.getMnemonic(e.opcode)).append('\n');
+            sb.append("      ");
+            switch(e.opcode){
+                case Opcode.ADDR: sb.append(String.format("r[%d] = (r[%d] + r[%d]) & 0xFFFFFF;", i2, i1, i2)); break;
+                case Opcode.SUBR: sb.append(String.format("r[%d] = (r[%d] - r[%d]) & 0xFFFFFF;", i2, i2, i1)); break;
+                case Opcode.MULR: sb.append(String.format("r[%d] = (r[%d] * r[%d]) & 0xFFFFFF;", i2, i1, i2)); break;
+                case Opcode.DIVR: sb.append(String.format("r[%d] = (r[%d] / r[%d]) & 0xFFFFFF;", i2, i2, i1)); break;
+                case Opcode.CLEAR: sb.append(String.format("r[%d] = 0;", i1)); break;
+                case Opcode.RMO: sb.append(String.format("r[%d] = r[%d] & 0xFFFFFF;", i2, i1)); break;
+                case Opcode.COMPR: sb.append(String.format("r[7] = r[7] & ~0xC0 | JitEngine.cc(r[%d], r[%d]);", i1, i2)); break;
+                case Opcode.TIXR: sb.append(String.format("r[1] = (r[1] + 1) & 0xFFFFFF; r[7] = r[7] & ~0xC0 | JitEngine.cc(r[1], %d);", r1)); break;
+                case Opcode.SHIFTL:
+                    sb.append(String.format("r[%d] = (r[%d] << %d | r[%d] >> %d) & 0xFFFFFF;", i1, i1, r2, i1, 24 - r2));
+                    break;
+                case Opcode.SHIFTR:
+                    sb.append(String.format("{ int v = r[%d]; r[%d] = (v >>> %d | (((v >> 23) & 1) == 1 ? %d : 0)) & 0xFFFFFF; }",
+                            i1, i1, r2, ~((1 << (24 - r2)) - 1)));
+                    break;
+                case Opcode.ADD: sb.append("r[0] = (r[0] + ").append(val).append(") & 0xFFFFFF;"); break;
+                case Opcode.SUB: sb.append("r[0] = (r[0] - ").append(val).append(") & 0xFFFFFF;"); break;
+                case Opcode.MUL: sb.append("r[0] = (r[0] * ").append(val).append(") & 0xFFFFFF;"); break;
+                case Opcode.DIV: sb.append("r[0] = (r[0] / ").append(val).append(") & 0xFFFFFF;"); break;
+                case Opcode.AND: sb.append("r[0] = (r[0] & ").append(val).append(") & 0xFFFFFF;"); break;
+                case Opcode.OR: sb.append("r[0] = (").append(val).append(" | r[0]) & 0xFFFFFF;"); break;
+                case Opcode.COMP: sb.append("r[7] = r[7] & ~0xC0 | JitEngine.cc(r[0], ").append(val).append(");"); break;
+                case Opcode.TIX: sb.append("r[1] = (r[1] + 1) & 0xFFFFFF; r[7] = r[7] & ~0xC0 | JitEngine.cc(r[1], ").append(val).append(");"); break;
+                case Opcode.LDA: sb.append("r[0] = ").append(val).append(" & 0xFFFFFF;"); break;
+                case Opcode.LDX: sb.append("r[1] = ").append(val).append(" & 0xFFFFFF;"); break;
+                case Opcode.LDL: sb.append("r[2] = ").append(val).append(" & 0xFFFFFF;"); break;
+                case Opcode.LDB: sb.append("r[3] = ").append(val).append(" & 0xFFFFFF;"); break;
+                case Opcode.LDS: sb.append("r[4] = ").append(val).append(" & 0xFFFFFF;"); break;
+                case Opcode.LDT: sb.append("r[5] = ").append(val).append(" & 0xFFFFFF;"); break;
+                case Opcode.LDCH: sb.append("r[0] = mem.getByte(").append(ea).append(");"); break;
+                case Opcode.STA: store = "mem.setWord(" + target + ", r[0]);"; break;
+                case Opcode.STX: store = "mem.setWord(" + target + ", r[1]);"; break;
+                case Opcode.STL: store = "mem.setWord(" + target + ", r[2]);"; break;
+                case Opcode.STB: store = "mem.setWord(" + target + ", r[3]);"; break;
+                case Opcode.STS: store = "mem.setWord(" + target + ", r[4]);"; break;
+                case Opcode.STT: store = "mem.setWord(" + target + ", r[5]);"; break;
+                case Opcode.STSW: store = "mem.setWord(" + target + ", r[7]);"; break;
+                case Opcode.STCH: store = "mem.setByte(" + target + ", r[0] & 0xFF);"; break;
+                case Opcode.J: sb.append("r[6] = (").append(ea).append(") & 0xFFFFFF;"); konec = true; break;
+                case Opcode.JEQ: case Opcode.JGT: case Opcode.JLT:
+                    int pogoj = e.opcode == Opcode.JEQ ? 0x40 : e.opcode == Opcode.JGT ? 0x80 : 0x00;
+                    sb.append("r[6] = (r[7] & 0xC0) == ").append(pogoj).append(" ? ").append(target).append(" & 0xFFFFFF : ").append(nx).append(';');
+                    konec = true;
+                    break;
+                case Opcode.JSUB:
+                    sb.append("r[2] = ").append(nx).append("; r[6] = ").append(target).append(" & 0xFFFFFF;");
+                    konec = true;
+                    break;
+                case Opcode.RSUB: sb.append("r[6] = r[2];"); konec = true; break;
+                default: throw new IllegalStateException("Nepodprt ukaz " + Opcode.getMnemonic(e.opcode));
+            }
+            if(store != null){
+                //po zapisu preverimo, ali smo prepisali lastno kodo; potem nadaljuje tolmac
+                sb.append(store).append('\n');
+                sb.append("      if(self.invalid){ r[6] = ").append(nx).append("; m.curOp = ").append(e.opcode)
+                        .append("; return ").append(i + 1).append("; }");
+            }
+            sb.append('\n');
+            a += DecodeCache.length(d);
+        }
+        if(!konec)
+            sb.append("      r[6] = ").append(next[ukazi.length - 1]).append(";\n");
+        sb.append("      m.curOp = ").append(curOp[ukazi.length - 1]).append(";\n");
+        sb.append("      return ").append(ukazi.length).append(";\n");
+        //ob izjemi (npr. deljenje z 0) pustimo stanje kot bi ga pustil tolmac: PC za ukazom, curOp prejsnjega
+        sb.append("    } catch (RuntimeException e) {\n");
+        sb.append("      switch(ip) {\n");
+        for(int i = 0; i < ukazi.length; i++){
+            sb.append("        case ").append(i).append(": r[6] = ").append(next[i]).append(';');
+            if(i > 0)
+                sb.append(" m.curOp = ").append(curOp[i - 1]).append(';');
+            sb.append(" break;\n");
+        }
+        sb.append("      }\n");
+        sb.append("      throw e;\n");
+        sb.append("    }\n");
+        sb.append("  }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    //prevede izvorno kodo v pomnilniku in jo nalozi kot hidden class v tem paketu
+    private static Code define(String src) throws Throwable {
+        String ime = "sic.simulator.JitBlock";
+        StandardJavaFileManager std = JAVAC.getStandardFileManager(null, null, null);
+        ByteArrayOutputStream bajti = new ByteArrayOutputStream();
+        JavaFileManager fm = new ForwardingJavaFileManager<>(std){
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling){
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind){
+                    @Override
+                    public OutputStream openOutputStream(){
+                        return bajti;
+                    }
+                };
+            }
+        };
+        JavaFileObject vir = new SimpleJavaFileObject(URI.create("string:///" + ime.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE){
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors){
+                return src;
+            }
+        };
+        String classpath = new File(JitEngine.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        StringWriter napake = new StringWriter();
+        boolean ok = JAVAC.getTask(napake, fm, null, List.of("-classpath", classpath, "-g:none", "-proc:none"),
+                null, List.of(vir)).call();
+        if(!ok)
+            throw new IllegalStateException(napake.toString());
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bajti.toByteArray(), true);
+        return (Code) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+    }
+
+    //pisanje v bajte prevedenega bloka ga razveljavi, ponovno se prevede sele po novih THRESHOLD vstopih
+    @Override
+    public void written(int addr, int len){
+        for(int a = addr; a < addr + len; a++){
+            boolean[] page = covered[a >>> PAGE_BITS];
+            if(page != null && page[a & PAGE_MASK]){
+                invalidate(addr, addr + len);
+                return;
+            }
+        }
+    }
+
+    private void invalidate(int from, int to){
+        for(int i = active.size() - 1; i >= 0; i--){
+            Block b = active.get(i);
+            if(b.start < to && from < b.end){
+                b.invalid = true;
+                if(block(b.start) == b)
+                    setBlock(b.start, null);
+                counts[b.start >>> PAGE_BITS][b.start & PAGE_MASK] = 0;
+                active.remove(i);
+                invalidated++;
+            }
+        }
+    }
+
+    @Override
+    public void cleared(){
+        for(Block b : active)
+            b.invalid = true;
+        invalidated += active.size();
+        active.clear();
+        Arrays.fill(blocks, null);
+        Arrays.fill(counts, null);
+        Arrays.fill(covered, null);
+    }
+}
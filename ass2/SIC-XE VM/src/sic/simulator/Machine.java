@@ -1,45 +1,169 @@
 package sic.simulator;
 
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
-public class Machine{
+public class Machine implements ExecutionEngine{
 
-    private static final int MAX_ADDR = 1 << 20; //1Mb
-    private static final int MAX_DEVICES = 256;
+    public static final int MAX_ADDR = 1 << 20; //1Mb
+    public static final int MAX_DEVICES = 256;
+
+    //biti n in i so v prvem bajtu, x b p e pa v zgornjih stirih bitih drugega bajta
+    //namesto objekta Opcode jih drzimo kar v int, da se pri izvajanju nic ne alocira
+    public static final int NI = 0b11;
+    public static final int SIC = 0b00;
+    public static final int TAKOJSNJE = 0b01; // #
+    public static final int POSREDNO = 0b10; // @
+    public static final int PREPROSTO = 0b11;
+
+    private static final int BIT_X = 0x80;
+    private static final int BIT_B = 0x40;
+    private static final int BIT_P = 0x20;
+    private static final int BIT_E = 0x10;
 
 
     private Device[] devices;
+    private final Channel[] channels = new Channel[Channel.COUNT]; // ustvarijo se ob prvem SIO/TIO/HIO
     public Register regs;
     public Memory mem;
     public int curOp;
+    private final DecodeCache cache;
+    //kolikokrat se je izvedel posamezen zdruzen ukaz (indeks je vrsta iz Fusion), stejejo skozi celo zivljenje stroja
+    private final long[] fuzije = new long[Fusion.COUNT];
+    private long executed; // ukazov v zadnjem run/runUntil/step
+    //stanje po nalaganju, na katerega se vrne reset (null -> reset pobrise vse)
+    private Memory.Snapshot posnetek;
+    private Register posnetekRegs;
+    private boolean cakanje; // zadnji TD je nasel nepripravljeno napravo
+    private int cakanjePc, cakanjeNaprava; // naslov in naprava tega TD
+    //koliko najvec nit stroja pocaka v zanki TD/JEQ na napravo, preden vrne IO_WAIT (0 = ne caka)
+    private long idleWait = 10_000_000L;
+    private long zadnjiIzpis; // System.nanoTime zadnjega pregleda naprav z INTERVAL
+    private int intervalne; // naprav s politiko INTERVAL; dokler ni nobene, tick ne gleda ure
+
+    //prekinitve (Interrupt): zahtevani razredi kot biti 1 << razred in ICODE za vsak razred
+    private int cakajoce;
+    private final int[] icode = new int[Interrupt.COUNT];
+    //casovnik steje ukaze do prekinitve, TIMER_OFF pomeni ustavljen
+    static final long TIMER_OFF = Long.MAX_VALUE;
+    private long timer = TIMER_OFF;
+    private int noviTimer = -1; // vrednost iz STI, nastavi se na koncu paketa
+    private boolean dogodek; // ukaz je spremenil prekinitve, casovnik ali masko, paket se konca za njim
+    private boolean kanali; // vsaj en kanal obstaja (I/O prekinitve)
+    //prekinitve in casovnik se preverjajo na vsakih toliko ukazov, vmes zanka nima dodatnih preverjanj
+    private static final int EVENT_CHECK = 1024;
+    private Profiler profiler; // null -> brez profila
+    private Trace trace; // null -> brez sledi
+    private UndoLog undo; // null -> brez zgodovine za korake nazaj
+    private boolean opazovan; // profil, sled ali zgodovina, en pogoj na ukaz
+    //zacetek ukaza, ki se izvaja, za Sampler (PC je med izvajanjem ze na naslednjem ukazu);
+    //pri JIT bloku je v zgornjem bajtu se stevilo ukazov od tega naslova naprej
+    private int izvaja;
+    private boolean vzorcen; // tece Sampler, ukazi se ne zdruzujejo
+    private static final VarHandle IZVAJA;
+    static{
+        try {
+            IZVAJA = MethodHandles.lookup().findVarHandle(Machine.class, "izvaja", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     //konstruktor
     public Machine(){
+        this(new PagedMemory(MAX_ADDR));
+    }
+
+    //stroj nad podanim pomnilnikom (npr. MappedMemory s shranjeno sliko), vsebina pomnilnika ostane
+    public Machine(Memory mem){
         devices = new Device[MAX_DEVICES];
 
         devices[0] = new InputDevice(System.in);
         devices[1] = new OutputDevice(System.out);
         devices[2] = new OutputDevice(System.err);
-        //zafila bin z vsemi devajsi
-//        for(int i = 3; i < MAX_DEVICES; i++){
-//            try {
-//                devices[i] = new FileDevice(Integer.toHexString(i) + ".dev", "rw");
-//            } catch (FileNotFoundException e) {
-//                System.err.println("Error writing file");
-//            }
-//        }
-
+        OutputDevice.pair((OutputDevice) devices[1], (OutputDevice) devices[2]);
+        //naprave 3-255 so datoteke XX.dev, odprejo se ob prvem dostopu (glej device)
         regs = new Register();
-        //dodaj še FileDevice?
-        //mogoce ob getDevice vecjemu od 2?
 
-        mem = new Memory(MAX_ADDR);
-        mem.reset();
+        this.mem = mem;
+        cache = new DecodeCache(mem.size());
+        mem.addWriteListener(cache);
+    }
+    //otrok za poskuse iz istega stanja (npr. razlicni vhodi na vec jedrih)
+    //pomnilnik je deljen copy-on-write: ne otrok ne starš ne vidita zapisov drugega po forku
+    //registri in tabela naprav so kopije, datoteke otrok odpre znova (na istem polozaju), izhod je isti,
+    //vhod (InputDevice) pa je prazen, ker ima obroc lahko samo enega bralca: otrok dobi svoj vhod s setDevice
+    //klice se, ko stroj ne tece; otrok ima svojo kopijo DecodeCache, posnetek za reset pa si delita
+    public Machine fork(){
+        return new Machine(this);
+    }
+
+    private Machine(Machine stars){
+        devices = stars.devices.clone();
+        //svoj FileChannel, da halt ali reset otroka (closeFiles) ne zapre datotek starsa
+        for(int i = 3; i < MAX_DEVICES; i++){
+            if(devices[i] instanceof FileDevice){
+                try {
+                    devices[i] = ((FileDevice) devices[i]).reopen();
+                } catch (IOException e) {
+                    System.err.println("Error opening file " + String.format("%02X.dev", i));
+                    devices[i] = null; // odpre se ob prvem dostopu
+                }
+            }
+        }
+        for(int i = 0; i < 3; i++){
+            if(devices[i] instanceof InputDevice)
+                devices[i] = new InputDevice(InputStream.nullInputStream()); // takoj EOF
+        }
+        regs = new Register(stars.regs);
+        mem = stars.mem.fork();
+        cache = new DecodeCache(stars.cache);
+        mem.addWriteListener(cache);
+        curOp = stars.curOp;
+        cakajoce = stars.cakajoce;
+        System.arraycopy(stars.icode, 0, icode, 0, icode.length);
+        timer = stars.timer;
+        idleWait = stars.idleWait;
+        posnetek = stars.posnetek;
+        posnetekRegs = stars.posnetekRegs;
+        intervalne = stars.intervalne;
     }
+
+    //z zajetim posnetkom vrne stanje po nalaganju (samo spremenjene strani), sicer pobrise pomnilnik in registre
     public void reset(){
-        regs = new Register();
-        mem.reset();
+        cakajoce = 0;
+        timer = TIMER_OFF;
+        noviTimer = -1;
+        for(Channel c : channels){
+            if(c != null)
+                c.reset();
+        }
+        closeFiles();
+        if(posnetek != null){
+            mem.restore(posnetek); // DecodeCache dobi obvestilo za vsako vrnjeno stran
+            regs.copyFrom(posnetekRegs);
+        }
+        else{
+            regs = new Register();
+            mem.reset(); // pobrise tudi DecodeCache
+        }
+        if(undo != null)
+            undo.start(this); // zgodovina se zacne znova
+    }
+
+    //zajame trenutno stanje (obicajno takoj po nalaganju programa), na katerega se vraca reset
+    public void snapshot(){
+        posnetek = mem.snapshot();
+        posnetekRegs = new Register(regs);
+    }
+
+    //reset spet brise vse, npr. pred nalaganjem drugega programa
+    public void clearSnapshot(){
+        posnetek = null;
+        posnetekRegs = null;
     }
 
     public Device getDevice(int dev){
@@ -49,11 +173,67 @@ public class Machine{
         return devices[dev];
     }
 
+    //naprava za TD/RD/WD; manjkajoco datoteko XX.dev (hex, kot AA.dev) odpre sele zdaj
+    Device device(int dev){
+        Device d = devices[dev];
+        if(d == null && dev > 2){
+            try {
+                d = new FileDevice(String.format("%02X.dev", dev), "rw");
+                devices[dev] = d;
+            } catch (IOException e) {
+                System.err.println("Error opening file " + String.format("%02X.dev", dev));
+            }
+        }
+        return d;
+    }
+
+    //kanal za SIO/TIO/HIO, stevilka je v A
+    public Channel channel(int stevilka){
+        if(stevilka < 0 || stevilka >= Channel.COUNT){
+            throw new IllegalArgumentException("Neveljavna številka kanala.");
+        }
+        Channel c = channels[stevilka];
+        if(c == null){
+            c = channels[stevilka] = new Channel(stevilka);
+            kanali = true;
+        }
+        return c;
+    }
+
+    //zapre datotecne naprave; ob naslednjem dostopu se datoteka spet odpre od zacetka
+    public void closeFiles(){
+        for(int i = 3; i < MAX_DEVICES; i++){
+            if(devices[i] instanceof FileDevice){
+                devices[i].close();
+                devices[i] = null;
+            }
+        }
+    }
+
     public void setDevice(int dev, Device device){
         if(dev < 0 || dev >= MAX_DEVICES){
             throw new IllegalArgumentException("Neveljavna številka naprave.");
         }
         devices[dev] = device;
+        prestejIntervalne();
+    }
+
+    //politika izpisa izhodne naprave stroja; stroj si zapomni, ali ima kaksno napravo z INTERVAL
+    public void setPolicy(int dev, OutputDevice.Flush policy){
+        if(!(getDevice(dev) instanceof OutputDevice)){
+            throw new IllegalArgumentException("Naprava " + dev + " ni izhodna.");
+        }
+        ((OutputDevice) devices[dev]).setPolicy(policy);
+        prestejIntervalne();
+    }
+
+    private void prestejIntervalne(){
+        int n = 0;
+        for(Device d : devices){
+            if(d instanceof OutputDevice && ((OutputDevice) d).getPolicy() == OutputDevice.Flush.INTERVAL)
+                n++;
+        }
+        intervalne = n;
     }
 
     // Odpravljanje težav
@@ -79,186 +259,691 @@ public class Machine{
         return command;
     }
 
+    //en ukaz brez porocila o ustavitvi; UI in ostali klicatelji naj uporabljajo step/run
     public void execute(){
+        int pc = regs.getPC();
+        execute(pc, decoded(pc));
+        tick(1);
+    }
+
+    //vrne null, ce se lahko izvajanje nadaljuje
+    private StopReason execute(int pc, long ukaz){
 //        System.out.println(regs.toString());
-        int opcode = fetch();
-        if(execF1(opcode))
-            return;
-        int operand1 = fetch();
-        if(execF2(opcode, operand1))
+        izvaja = pc;
+        int opcode = DecodeCache.opcode(ukaz);
+        int ni = opcode & NI;
+        regs.setPC(pc + DecodeCache.length(ukaz));
+        int operand = DecodeCache.operand(ukaz);
+        int flags = DecodeCache.flags(ukaz);
+        if(flags != 0)
+            operand = resolve(ni, flags, operand);
+
+        Dispatch.Entry entry = Dispatch.TABLE[opcode];
+        if(!exec(entry.handler, ni, operand)){
+            if((regs.getSW() & Interrupt.maskBit(Interrupt.PROGRAM)) != 0){
+                request(Interrupt.PROGRAM, Interrupt.ILLEGAL_INSTRUCTION);
+                dogodek = false; // paket se konca ze s tem BUDGET
+                return StopReason.BUDGET;
+            }
+            invalidOpcode(opcode);
+            System.out.printf("Nic se ne izvede\n");
+            return StopReason.INVALID_OPCODE;
+        }
+        curOp = entry.opcode;
+        if(opazovan)
+            opazuj(pc, ukaz, operand);
+//        System.out.printf("Izvajam operacijo: 0x%02x - %s\n", entry.opcode, Opcode.getMnemonic(entry.opcode));
+        if(cakanje){
+            cakanje = false;
+            cakanjePc = pc;
+            return StopReason.IO_WAIT;
+        }
+        if(dogodek){
+            dogodek = false;
+            return StopReason.BUDGET; // zanka konca paket in obdela prekinitve in casovnik
+        }
+        return null;
+    }
+
+    @Override
+    public StopReason run(long maxInstructions){
+        return izvajaj(maxInstructions, -1, null);
+    }
+
+    @Override
+    public StopReason runUntil(int pc, long maxInstructions){
+        return izvajaj(maxInstructions, pc, null);
+    }
+
+    //en ukaz je manj kot najkrajsi zdruzen ukaz, zato se nic ne zdruzi
+    @Override
+    public StopReason step(){
+        return izvajaj(1, -1, null);
+    }
+
+    //tolmac za JitEngine: tece do konca osnovnega bloka (ukaz, za katerim je konec[curOp]) ali max ukazov
+    //in vrne BUDGET, kot run; ostalo je enako kot pri run
+    StopReason runBlock(long max, boolean[] konec){
+        return izvajaj(max, -1, konec);
+    }
+
+    @Override
+    public long getExecuted(){
+        return executed;
+    }
+
+    //until < 0 pomeni brez prekinitvene tocke, konec == null brez ustavljanja na koncu bloka
+    private StopReason izvajaj(long max, int until, boolean[] konec){
+        StopReason razlog;
+        try {
+            razlog = zanka(max, until, konec);
+        } catch (RuntimeException e) {
+            flushDevices(); // izhod do napake naj se vidi
+            throw e;
+        }
+        //ob ustavitvi in cakanju na vhod mora bit izhod ze viden, po halt se datoteke zaprejo
+        if(razlog != StopReason.BUDGET)
+            flushDevices();
+        if(razlog == StopReason.HALT)
+            closeFiles();
+        //s prizganim casovnikom ali kanalom se ne caka: cas stroja se steje v ukazih, med cakanjem bi stal
+        if(razlog == StopReason.IO_WAIT && idleWait > 0 && pollLoop(cakanjePc) && !lahkoPrekinitev())
+            device(cakanjeNaprava).await(idleWait);
+        return razlog;
+    }
+
+    //TD na pc, ki mu sledi JEQ nazaj na isti TD: zanka samo spreminja PC in SW, zato lahko
+    //namesto nje cakamo na napravo; ko se zbudimo, je stanje enako kot v kateremkoli obhodu zanke
+    private boolean pollLoop(int pc){
+        long td = decoded(pc);
+        if(Dispatch.TABLE[DecodeCache.opcode(td)].handler != Opcode.TD || DecodeCache.flags(td) != 0)
+            return false;
+        long jeq = decoded(pc + DecodeCache.length(td));
+        return Dispatch.TABLE[DecodeCache.opcode(jeq)].handler == Opcode.JEQ && DecodeCache.flags(jeq) == 0
+                && (DecodeCache.opcode(jeq) & NI) != POSREDNO && DecodeCache.operand(jeq) == pc;
+    }
+
+    //profil izvajanja (Profiler), null ga izklopi; nastavi se, ko stroj ne tece
+    public void setProfiler(Profiler profiler){
+        this.profiler = profiler;
+        opazovan = observed();
+    }
+
+    public Profiler getProfiler(){
+        return profiler;
+    }
+
+    //binarna sled izvajanja (Trace), null jo izklopi; zapre jo klicatelj
+    public void setTrace(Trace trace){
+        this.trace = trace;
+        opazovan = observed();
+    }
+
+    public Trace getTrace(){
+        return trace;
+    }
+
+    //zgodovina za korake nazaj (UndoLog), null jo izklopi; nastavi se, ko stroj ne tece
+    //zgodovina se zacne v trenutnem stanju, zato se nastavi po nalaganju programa
+    public void setUndoLog(UndoLog undo){
+        this.undo = undo;
+        mem.undo = undo;
+        opazovan = observed();
+        if(undo != null)
+            undo.start(this);
+    }
+
+    public UndoLog getUndoLog(){
+        return undo;
+    }
+
+    //n ukazov nazaj po zgodovini, vrne, za koliko ukazov se je stroj vrnil (0 brez zgodovine)
+    public long stepBack(long n){
+        return undo == null ? 0 : undo.back(this, n);
+    }
+
+    //nazaj do zadnjega stanja, ko je bil PC na pc (prekinitvena tocka), najvec max ukazov;
+    //false, ce ga v zgodovini ni (stroj je potem na najzgodnejsem stanju)
+    public boolean runBack(int pc, long max){
+        return undo != null && undo.runBack(this, pc, max);
+    }
+
+    //profil, sled ali zgodovina mora videt vsak ukaz, zato JIT ne poganja prevedenih blokov;
+    //zdruzuje se s sledjo, zapise za posamezne ukaze naredi fused
+    boolean observed(){
+        return profiler != null || trace != null || undo != null;
+    }
+
+    //po izvedenem ukazu; posebna metoda, da execute ostane dovolj majhen za inline v zanko
+    private void opazuj(int pc, long ukaz, int operand){
+        if(profiler != null)
+            profiler.count(pc, ukaz, operand);
+        if(trace != null)
+            trace.record(pc, DecodeCache.opcode(ukaz), operand, regs);
+        if(undo != null)
+            undo.instruction(this);
+    }
+
+    //za Sampler iz druge niti: naslov in v zgornjem bajtu stevilo ukazov (glej izvaja)
+    int getExecutingOpaque(){
+        return (int) IZVAJA.getOpaque(this);
+    }
+
+    //prevedeni blok dolzine ukazov od pc naprej (JitEngine)
+    void executing(int pc, int ukazov){
+        izvaja = pc | ukazov << 24;
+    }
+
+    //zdruzen ukaz je hitrejsi od posameznih, zato bi vzorci njegove ukaze pokazali manj, kot se izvajajo
+    void setSampled(boolean vzorcen){
+        this.vzorcen = vzorcen;
+    }
+
+    //najdaljse cakanje v zanki TD/JEQ v ns, 0 izklopi cakanje (zanka se potem vrti kot prej)
+    public void setIdleWait(long nanos){
+        idleWait = nanos;
+    }
+
+    //zanka izvajanja, until < 0 pomeni brez prekinitvene tocke
+    //zdruzene ukaze (Fusion) izvede naenkrat, stanje po njih je enako kot po posameznih ukazih;
+    //s prekinitveno tocko se ne zdruzuje, ker bi lahko zdruzen ukaz sel cez njo
+    //s konec se ustavi za ukazom, ki konca osnovni blok (zdruzen ukaz se konca s svojim zadnjim ukazom)
+    private StopReason zanka(long max, int until, boolean[] konec){
+        long n = 0;
+        boolean blok = false;
+        boolean zdruzi = until < 0 && profiler == null && undo == null && !vzorcen; // profil in zgodovina vidita vsak ukaz posebej
+        StopReason razlog = StopReason.BUDGET;
+        while(n < max){
+            //paket do casovnika oziroma naslednjega preverjanja prekinitev
+            long meja = n + Math.min(max - n, Math.min(timer, EVENT_CHECK));
+            long zacetek = n;
+            StopReason r = null;
+            while(n < meja){
+                int pc = regs.getPC();
+                long ukaz = decoded(pc);
+                int fuzija = DecodeCache.fusion(ukaz);
+                if(fuzija != Fusion.NONE && zdruzi && meja - n >= Fusion.LENGTH[fuzija]){
+                    n += Fusion.LENGTH[fuzija];
+                    r = fused(fuzija, pc, ukaz);
+                }
+                else{
+                    r = execute(pc, ukaz);
+                    n++;
+                    //halt je J halt, PC se neha spreminjat
+                    if(r == null && regs.getPC() == pc)
+                        r = StopReason.HALT;
+                }
+                if(r != null)
+                    break;
+                if(regs.getPC() == until){
+                    r = StopReason.BREAKPOINT;
+                    break;
+                }
+                if(konec != null && konec[curOp & 0xFF]){
+                    blok = true;
+                    break;
+                }
+            }
+            tick(n - zacetek);
+            if(r == StopReason.BUDGET) // dogodek iz execute (SVC, STI, LPS, program)
+                r = null;
+            //J halt s prizganim casovnikom ali kanalom, ki lahko sprozi prekinitev, je cakanje nanjo
+            if(r == StopReason.HALT && lahkoPrekinitev()){
+                r = null;
+                //skok sam nase do casovnika samo steje ukaze, zato ga preskocimo
+                if(timer != TIMER_OFF && n < max){
+                    long preskok = Math.min(max - n, timer);
+                    n += preskok;
+                    tick(preskok);
+                }
+            }
+            if(r != null){
+                razlog = r;
+                break;
+            }
+            if(blok)
+                break;
+        }
+        executed = n;
+        return razlog;
+    }
+
+    //k izvedenih ukazov: odsteje casovnik, nastavi casovnik iz STI in izvede cakajoce prekinitve, ki jih maska dovoli
+    //klice ga tudi JitEngine po prevedenem bloku
+    void tick(long k){
+        if(timer != TIMER_OFF){
+            timer -= k;
+            if(timer <= 0){
+                timer = TIMER_OFF;
+                cakajoce |= 1 << Interrupt.TIMER;
+            }
+        }
+        if(noviTimer >= 0){
+            timer = noviTimer == 0 ? TIMER_OFF : noviTimer;
+            noviTimer = -1;
+        }
+        if(cakajoce != 0 || kanali)
+            prekinitve();
+        if(undo != null)
+            undo.tick(this);
+        if(intervalne > 0)
+            izpisiPoIntervalu();
+    }
+
+    //naprave z OutputDevice.Flush.INTERVAL se izpisejo tudi, ce program dolgo ne pise; ura se pogleda enkrat na paket,
+    //naprave pa najvec vsako ms
+    private void izpisiPoIntervalu(){
+        long zdaj = System.nanoTime();
+        if(zdaj - zadnjiIzpis < 1_000_000L)
             return;
-        Opcode flags = new Opcode(opcode, operand1);
+        zadnjiIzpis = zdaj;
+        for(Device d : devices){
+            if(d instanceof OutputDevice)
+                ((OutputDevice) d).flushElapsed(zdaj);
+        }
+    }
+
+    //ukazi do prekinitve casovnika (JIT ne sme prevedenega bloka pognat cez)
+    long timerLeft(){
+        return timer;
+    }
+
+    //stanje prekinitev za Checkpoint: casovnik, zahtevani razredi in njihovi ICODE
+    void writeInterrupts(java.io.DataOutput out) throws IOException {
+        out.writeLong(timer);
+        out.writeInt(cakajoce);
+        for(int k : icode)
+            out.writeInt(k);
+    }
+
+    void readInterrupts(java.io.DataInput in) throws IOException {
+        timer = in.readLong();
+        cakajoce = in.readInt();
+        for(int i = 0; i < icode.length; i++)
+            icode[i] = in.readInt();
+        noviTimer = -1;
+    }
+
+    private void request(int razred, int koda){
+        cakajoce |= 1 << razred;
+        icode[razred] = koda;
+        dogodek = true;
+    }
+
+    //izvede vse dovoljene cakajoce prekinitve po prioriteti; SVC in program sta vedno dovoljena (zahtevata ju ukaza)
+    private void prekinitve(){
+        for(int i = 0; i < Interrupt.COUNT; i++){
+            int sw = regs.getSW();
+            if((cakajoce & 1 << Interrupt.SVC) != 0)
+                prekinitev(Interrupt.SVC);
+            else if((cakajoce & 1 << Interrupt.PROGRAM) != 0)
+                prekinitev(Interrupt.PROGRAM);
+            else if((cakajoce & 1 << Interrupt.TIMER) != 0 && (sw & Interrupt.maskBit(Interrupt.TIMER)) != 0)
+                prekinitev(Interrupt.TIMER);
+            else if(kanali && (sw & Interrupt.maskBit(Interrupt.IO)) != 0 && koncanKanal() >= 0){
+                icode[Interrupt.IO] = koncanKanal();
+                channels[icode[Interrupt.IO]].acknowledge();
+                prekinitev(Interrupt.IO);
+            }
+            else
+                return;
+        }
+    }
+
+    private int koncanKanal(){
+        for(int i = 0; i < Channel.COUNT; i++){
+            if(channels[i] != null && channels[i].pendingInterrupt())
+                return i;
+        }
+        return -1;
+    }
+
+    //shrani stanje v delovno podrocje razreda in skoci na rutino
+    private void prekinitev(int razred){
+        cakajoce &= ~(1 << razred);
+        int wa = Interrupt.WORK_AREA[razred];
+        storeStatus(wa + Interrupt.OLD_SW, regs.getSW() & ~Interrupt.ICODE | icode[razred] & Interrupt.ICODE);
+        regs.setSW(mem.getWord(wa + Interrupt.NEW_SW));
+        regs.setPC(mem.getWord(wa + Interrupt.NEW_PC));
+    }
+
+    //SW, PC, A, X, L, B, S, T, F od naslova naprej (obratno od LPS)
+    private void storeStatus(int addr, int sw){
+        mem.setWord(addr, sw);
+        mem.setWord(addr + 3, regs.getPC());
+        for(int r = Register.A; r <= Register.T; r++)
+            mem.setWord(addr + 6 + 3 * r, regs.getReg(r));
+        long f = regs.getFRaw();
+        mem.setWord(addr + 24, (int) (f >>> 24));
+        mem.setWord(addr + 27, (int) f);
+    }
+
+    private void loadStatus(int addr){
+        regs.setSW(mem.getWord(addr));
+        regs.setPC(mem.getWord(addr + 3));
+        for(int r = Register.A; r <= Register.T; r++)
+            regs.setReg(r, mem.getWord(addr + 6 + 3 * r));
+        regs.setFRaw((long) mem.getWord(addr + 24) << 24 | mem.getWord(addr + 27));
+    }
+
+    //ali lahko kasneje pride prekinitev, ki jo maska dovoli
+    private boolean lahkoPrekinitev(){
+        int sw = regs.getSW();
+        if(timer != TIMER_OFF && (sw & Interrupt.maskBit(Interrupt.TIMER)) != 0)
+            return true;
+        if(kanali && (sw & Interrupt.maskBit(Interrupt.IO)) != 0){
+            for(Channel c : channels){
+                if(c != null && (c.isBusy() || c.pendingInterrupt()))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void flushDevices(){
+        for(Device d : devices){
+            if(d != null)
+                d.flush();
+        }
+    }
+
+    public long getFusionCount(int fuzija){
+        return fuzije[fuzija];
+    }
+
+    //izvede zdruzen ukaz, ki se zacne na pc; vrne null, HALT (zadnji ukaz je skok sam nase) ali IO_WAIT
+    //operandi so brez zastavic in posrednega naslavljanja (preveri Fusion.match)
+    private StopReason fused(int fuzija, int pc, long prvi){
+        fuzije[fuzija]++;
+        int pc2 = pc + DecodeCache.length(prvi);
+        long drugi = decoded(pc2);
+        int next = pc2 + DecodeCache.length(drugi);
+        switch(fuzija){
+            case Fusion.LDA_ADD_STA:
+            case Fusion.LDA_SUB_STA: {
+                long tretji = decoded(next);
+                int a = naslavljanje(DecodeCache.opcode(prvi) & NI, DecodeCache.operand(prvi));
+                int b = naslavljanje(DecodeCache.opcode(drugi) & NI, DecodeCache.operand(drugi));
+                regs.setA(fuzija == Fusion.LDA_ADD_STA ? a + b : a - b);
+                regs.setPC(next + DecodeCache.length(tretji));
+                mem.setWord(DecodeCache.operand(tretji), regs.getA());
+                curOp = Opcode.STA;
+                if(trace != null){
+                    int x = regs.getX(), sw = regs.getSW();
+                    trace.record(pc, DecodeCache.opcode(prvi), DecodeCache.operand(prvi), a, x, sw);
+                    trace.record(pc2, DecodeCache.opcode(drugi), DecodeCache.operand(drugi), regs.getA(), x, sw);
+                    trace.record(next, DecodeCache.opcode(tretji), DecodeCache.operand(tretji), regs.getA(), x, sw);
+                }
+                return null;
+            }
+            case Fusion.TIX_JCC:
+                regs.setX(regs.getX() + 1);
+                regs.setCC(cc(regs.getX(), naslavljanje(DecodeCache.opcode(prvi) & NI, DecodeCache.operand(prvi))));
+                break;
+            case Fusion.COMP_JCC:
+                regs.setCC(cc(regs.getA(), naslavljanje(DecodeCache.opcode(prvi) & NI, DecodeCache.operand(prvi))));
+                break;
+            case Fusion.TD_JEQ:
+                //ce naprave ni, naj izjema pusti PC kot pri obicajnem TD
+                regs.setPC(pc2);
+                cakanjePc = pc;
+                cakanjeNaprava = naslavljanjeDevices(DecodeCache.opcode(prvi) & NI, DecodeCache.operand(prvi));
+                regs.setCC(device(cakanjeNaprava).test() ? 0 : 0x40);
+                break;
+        }
+        //drugi ukaz je pogojni skok z znanim ciljem
+        int skok = Dispatch.TABLE[DecodeCache.opcode(drugi)].opcode;
+        regs.setPC(regs.getCC() == Fusion.condition(skok) ? DecodeCache.operand(drugi) : next);
+        curOp = skok;
+        //skok ne spremeni A, X in SW, zato imata oba zapisa stanje po skupini
+        if(trace != null){
+            trace.record(pc, DecodeCache.opcode(prvi), DecodeCache.operand(prvi), regs);
+            trace.record(pc2, DecodeCache.opcode(drugi), DecodeCache.operand(drugi), regs);
+        }
+        if(regs.getPC() == pc2)
+            return StopReason.HALT;
+        if(fuzija == Fusion.TD_JEQ && regs.getCC() == 0x40)
+            return StopReason.IO_WAIT;
+        return null;
+    }
+
+    //SW po primerjavi: 0x00 manjse, 0x40 enako, 0x80 vecje
+    private static int cc(int a, int b){
+        return a < b ? 0x00 : a > b ? 0x80 : 0x40;
+    }
+
+    //dekodiran ukaz na naslovu pc (format vnosa je v DecodeCache)
+    long decoded(int pc){
+        long ukaz = cache.get(pc);
+        if(ukaz == 0){
+            ukaz = fuse(pc, decode(pc));
+            cache.put(pc, ukaz);
+        }
+        return ukaz;
+    }
+
+    //dekodira ukaz na naslovu pc brez spreminjanja registrov, rezultat gre v DecodeCache
+    //vse kar je odvisno od B in X (in napake naslavljanja) ostane v zastavicah za cas izvajanja
+    private long decode(int pc){
+        int opcode = mem.getByte(pc);
+        int ni = opcode & NI;
+        switch(Dispatch.TABLE[opcode].format){
+            case Dispatch.F1:
+                return DecodeCache.pack(opcode, 1, 0, 0);
+            case Dispatch.F2:
+                return DecodeCache.pack(opcode, 2, 0, mem.getByte(pc + 1));
+        }
+        int operand1 = mem.getByte(pc + 1);
+        int flags = 0;
         int operand2;
-        if(flags.isSic()){
+        int dolzina;
+        if(ni == SIC){
             // x1234567_89-----
-            //odstranit mormo x, premaknit za 8, in dodat novi fetch
-            operand2 = (operand1 & 0xFE) << 8 | fetch() & 0xFF;
+            //odstranit mormo x, premaknit za 8, in dodat novi bajt
+            operand2 = (operand1 & 0xFE) << 8 | mem.getByte(pc + 2);
+            dolzina = 3;
         }
-        else if(flags.isF4()){
-            //xbpe mormo rezat iz drugega fetcha, pol še dva štuklamo
-            operand2 = ((operand1 & 0x0F) << 8 | fetch() & 0xFF) << 8 | fetch() & 0xFF;
-            if(flags.isRel())
-                invalidAddressing(); // ker je 20 bitni addres, je to absolutni address, nikoli rel na PC ali bazni reg
+        else if((operand1 & BIT_E) != 0){
+            //xbpe mormo rezat iz drugega bajta, pol še dva štuklamo
+            operand2 = ((operand1 & 0x0F) << 8 | mem.getByte(pc + 2)) << 8 | mem.getByte(pc + 3);
+            dolzina = 4;
+            if((operand1 & (BIT_B | BIT_P)) != 0)
+                flags |= DecodeCache.BAD; // ker je 20 bitni addres, je to absolutni address, nikoli rel na PC ali bazni reg
         }
         else { // je F3  tukaj pa je lahko relativno naslavljanje
-            operand2 = (operand1 & 0x0F) << 8 | fetch() & 0xFF;
-            if(flags.isPcRel()){
+            operand2 = (operand1 & 0x0F) << 8 | mem.getByte(pc + 2);
+            dolzina = 3;
+            int bp = operand1 & (BIT_B | BIT_P);
+            if(bp == BIT_P){
                 //12 bitni offset  -2048 do +2047,  pa se od 2048 do 4095 zaradi dvojiškega komplementa tretiraj kot negativne torej -2048 do -1
-                operand2 = (operand2 >= 2048) ? operand2 - 4096 + regs.getPC(): operand2 + regs.getPC();
+                //PC po branju ukaza je pc + 3
+                operand2 = (operand2 >= 2048) ? operand2 - 4096 + pc + 3 : operand2 + pc + 3;
             }
-            else if(flags.isBaseRel()){
-                operand2 += regs.getB();
+            else if(bp == BIT_B){
+                flags |= DecodeCache.BASE;
             }
-            else if (flags.isDirect()) {
+            else if (bp == 0) {
                 //p = 0, b = 0  -> celih 12 bitov se uporabi za absolutni naslov, če to ne velja sta oba settana in je invalid addressing
             }
             else
-                invalidAddressing();
+                flags |= DecodeCache.BAD;
         }
         // preverit moramo samo še če je indeksirano naslavljanje
-        if(flags.isIndeksirano()){
-            if(flags.isPreprosto())
-                operand2 += regs.getX();
+        if((operand1 & BIT_X) != 0){
+            if(ni == PREPROSTO)
+                flags |= DecodeCache.INDEX;
             else
-                invalidAddressing();
+                flags |= (flags & DecodeCache.BAD) != 0 ? DecodeCache.BAD2 : DecodeCache.BAD;
         }
-        if(execSICF3F4(opcode & 0xFC, flags, operand2))
-            return;
-        else
-            invalidOpcode(opcode);
-        System.out.printf("Nic se ne izvede\n");
+        return DecodeCache.pack(opcode, dolzina, flags, operand2);
+    }
+
+    //poskusi zdruzit ukaz na pc z ukazi za njim (Fusion), ukazi za njim se dekodirajo samo za primerjavo
+    private long fuse(int pc, long ukaz){
+        int pc2 = pc + DecodeCache.length(ukaz);
+        if(pc2 + 2 * DecodeCache.MAX_LEN > mem.size())
+            return ukaz;
+        long drugi = decode(pc2);
+        long tretji = decode(pc2 + DecodeCache.length(drugi));
+        return DecodeCache.withFusion(ukaz, Fusion.match(ukaz, drugi, tretji, mem.size()));
+    }
+
+    //doda B in X ter javi neveljavno naslavljanje, kot bi se zgodilo pri branju ukaza
+    private int resolve(int ni, int flags, int operand){
+        if((flags & DecodeCache.BAD) != 0)
+            invalidAddressing();
+        if((flags & DecodeCache.BASE) != 0)
+            operand += regs.getB();
+        if((flags & DecodeCache.BAD2) != 0)
+            invalidAddressing();
+        if((flags & DecodeCache.INDEX) != 0)
+            operand += regs.getX();
+        return operand;
+    }
+
+    public int naslavljanje(int ni, int operand){
+        if(ni == POSREDNO){
+            return mem.getWord(mem.getWord(operand));
+        }
+        else if(ni == PREPROSTO){
+            return mem.getWord(operand);
+        }
+        //takojšnje (in SIC)
+        return operand;
+    }
+    public int naslavljanjeDevices(int ni, int operand){
+        if(ni == POSREDNO){
+            return mem.getByte(mem.getWord(operand));
+        }
+        else if(ni == PREPROSTO){
+            return mem.getByte(operand);
+        }
+        return operand;
+    }
+
+    //ciljni naslov za skoke in store
+    private int target(int ni, int operand){
+        return ni == POSREDNO ? mem.getWord(operand) : operand;
     }
 
-    public boolean execF1(int opcode){
-        switch(opcode){
+    //en sam switch za vse formate, handler je opcode brez n in i bitov (iz Dispatch.TABLE)
+    //JIT ga prevede v tabelo skokov, tako da je dispatch en indeksiran skok
+    private static boolean registra(int r1, int r2){
+        return Register.isWord(r1) && Register.isWord(r2);
+    }
+
+    public boolean exec(int handler, int ni, int operand){
+        int r1 = operand >> 4; // F2: 0x12 -> 0x1
+        int r2 = operand & 0xF; // F2: 0x12 -> 0x2
+
+        switch(handler){
+            // F1
             case Opcode.FIX:
                 regs.setA((int) regs.getF());
                 break;
             case Opcode.FLOAT:
-                regs.setF((float) regs.getA());
+                regs.setF(regs.getA() << 8 >> 8); // A je predznacen 24 biten
                 break;
             case Opcode.HIO:
-                notImplemented("HIO");
+                channel(regs.getA()).halt();
                 break;
             case Opcode.TIO:
-                notImplemented("TIO");
+                regs.setCC(channel(regs.getA()).test(this));
                 break;
             case Opcode.NORM:
                 notImplemented("NORM");
                 break;
             case Opcode.SIO:
-                notImplemented("SIO");
+                regs.setCC(channel(regs.getA()).start(this, regs.getS()) ? Channel.CC_DONE : Channel.CC_BUSY);
                 break;
-            default: return false;
-        }
-        String s = String.format("0x%02x", opcode);
-        curOp = opcode;
-//        System.out.printf("Izvajam operacijo: %s - %s\n", s, Opcode.getMnemonic(opcode & 0xFF));
-        return true;
-    }
-    public boolean execF2(int opcode, int operand){
-        int r1 = operand >> 4; // 0x1234 -> 0x12
-        int r2 = operand & 0xF; //0x1234 -> 0x34
-
-        switch(opcode){
+            // F2, ukaz z registrom F ali 7 je neveljaven (glej Register.isWord)
             case Opcode.ADDR:
-                regs.setReg(r2, ((int)regs.getReg(r1) + (int)regs.getReg(r2)));
+                if(!registra(r1, r2))
+                    return false;
+                regs.setReg(r2, (regs.getReg(r1) + regs.getReg(r2)));
                 break;
             case Opcode.CLEAR:
+                if(!registra(r1, 0))
+                    return false;
                 regs.setReg(r1, 0);
                 break;
             case Opcode.COMPR: //0x0, 0x40 in 0x80 manjše, enako, večje
-                if((int)regs.getReg(r1) < (int)regs.getReg(r2))
-                    regs.setSW(0x00);
-                else if((int)regs.getReg(r1) > (int)regs.getReg(r2))
-                    regs.setSW(0x80);
-                else regs.setSW(0x40);
+                if(!registra(r1, r2))
+                    return false;
+                if(regs.getReg(r1) < regs.getReg(r2))
+                    regs.setCC(0x00);
+                else if(regs.getReg(r1) > regs.getReg(r2))
+                    regs.setCC(0x80);
+                else regs.setCC(0x40);
                 break;
             case Opcode.DIVR:
-                regs.setReg(r2, ((int)regs.getReg(r2) / (int)regs.getReg(r1)));
+                if(!registra(r1, r2))
+                    return false;
+                regs.setReg(r2, (regs.getReg(r2) / regs.getReg(r1)));
                 break;
             case Opcode.MULR:
-                regs.setReg(r2, ((int)regs.getReg(r1) * (int)regs.getReg(r2)));
+                if(!registra(r1, r2))
+                    return false;
+                regs.setReg(r2, (regs.getReg(r1) * regs.getReg(r2)));
                 break;
             case Opcode.RMO:
+                if(!registra(r1, r2))
+                    return false;
                 regs.setReg(r2, regs.getReg(r1));
                 break;
             case Opcode.SHIFTL:
-                regs.setReg(r1, (int)regs.getReg(r1) << r2 | (int)regs.getReg(r1) >> (24 - r2));
+                if(!registra(r1, 0))
+                    return false;
+                regs.setReg(r1, regs.getReg(r1) << r2 | regs.getReg(r1) >> (24 - r2));
                 //r2 = 3                 0x12345678-> 0x45678000             0x12345678 -> 0x00000123   = 0x45678123 circular shift
                 break;
             case Opcode.SHIFTR:
-                int skrajnoLevi = ((int)regs.getReg(r1) >> 23) & 1;
-                int premakjeno = (int)regs.getReg(r1) >>> r2; // >>> jih zafila z nič
+                if(!registra(r1, 0))
+                    return false;
+                int skrajnoLevi = (regs.getReg(r1) >> 23) & 1;
+                int premakjeno = regs.getReg(r1) >>> r2; // >>> jih zafila z nič
                 int mask = (skrajnoLevi == 1) ? ~((1 << (24-r2)) -1) :0;
                 regs.setReg(r1, premakjeno | mask);
                 break;
             case Opcode.SUBR:
-                regs.setReg(r2, ((int)regs.getReg(r2) - (int)regs.getReg(r1)));
+                if(!registra(r1, r2))
+                    return false;
+                regs.setReg(r2, (regs.getReg(r2) - regs.getReg(r1)));
                 break;
             case Opcode.SVC:
-                notImplemented("SVC");
+                request(Interrupt.SVC, r1);
                 break;
             case Opcode.TIXR:
                 regs.setX(regs.getX() + 1);
                 if(regs.getX() < r1)
-                    regs.setSW(0x00);
+                    regs.setCC(0x00);
                 else if(regs.getX() > r1)
-                    regs.setSW(0x80);
-                else regs.setSW(0x40);
+                    regs.setCC(0x80);
+                else regs.setCC(0x40);
                 break;
-            default: return false;
-        }
-        String s = String.format("0x%02x", opcode);
-        curOp = opcode;
-//        System.out.printf("Izvajam operacijo: %s - %s\n", s, Opcode.getMnemonic(opcode & 0xFF));
-        return true;
-    }
-    public int naslavljanje(Opcode flags, int operand){
-        if(flags.isPosredno()){
-            return mem.getWord(mem.getWord(operand));
-        }
-        else if(flags.isPreprosto()){
-            return mem.getWord(operand);
-        }
-//        else if(flags.isTakojsnje())
-        //takojšnje
-            return operand;
-    }
-    public int naslavljanjeDevices(Opcode flags, int operand){
-        if(flags.isPosredno()){
-            return mem.getByte(mem.getWord(operand));
-        }
-        else if(flags.isPreprosto()){
-            return mem.getByte(operand);
-        }
-        return operand;
-    }
-
-
-    public boolean execSICF3F4(int opcode, Opcode flags, int operand){
-        switch (opcode){
+            // SIC, F3, F4
             case Opcode.ADD:
-                regs.setA(regs.getA() + naslavljanje(flags, operand));
+                regs.setA(regs.getA() + naslavljanje(ni, operand));
                 break;
             case Opcode.ADDF:
                 notImplemented("ADDF");
                 break;
             case Opcode.AND:
-                regs.setA(regs.getA() & naslavljanje(flags, operand));
+                regs.setA(regs.getA() & naslavljanje(ni, operand));
                 break;
             case Opcode.COMP:
-                if(regs.getA() < naslavljanje(flags, operand))
-                    regs.setSW(0x00);
-                else if(regs.getA() > naslavljanje(flags, operand))
-                    regs.setSW(0x80);
-                else regs.setSW(0x40);
+                if(regs.getA() < naslavljanje(ni, operand))
+                    regs.setCC(0x00);
+                else if(regs.getA() > naslavljanje(ni, operand))
+                    regs.setCC(0x80);
+                else regs.setCC(0x40);
                 break;
             case Opcode.COMPF:
                 notImplemented("COMPF");
                 break;
             case Opcode.DIV:
-                regs.setA(regs.getA() / naslavljanje(flags, operand));
+                regs.setA(regs.getA() / naslavljanje(ni, operand));
                 break;
             case Opcode.DIVF:
                 notImplemented("DIVF");
@@ -269,59 +954,60 @@ public class Machine{
                 regs.setPC(operand);
                 break;
             case Opcode.JEQ:
-                if(regs.getSW() == 0x40) regs.setPC(flags.isPosredno() ? mem.getWord(operand) : operand);
+                if(regs.getCC() == 0x40) regs.setPC(target(ni, operand));
                 break;
             case Opcode.JGT:
-                if(regs.getSW() == 0x80) regs.setPC(flags.isPosredno() ? mem.getWord(operand) : operand);
+                if(regs.getCC() == 0x80) regs.setPC(target(ni, operand));
                 break;
             case Opcode.JLT:
-                if(regs.getSW() == 0x00) regs.setPC(flags.isPosredno() ? mem.getWord(operand) : operand);
+                if(regs.getCC() == 0x00) regs.setPC(target(ni, operand));
                 break;
             case Opcode.JSUB:
                 regs.setL(regs.getPC());
-                regs.setPC(flags.isPosredno() ? mem.getWord(operand) : operand);
+                regs.setPC(target(ni, operand));
                 break;
                 //LOADS
             case Opcode.LDA:
-                regs.setA(naslavljanje(flags, operand));
+                regs.setA(naslavljanje(ni, operand));
                 break;
             case Opcode.LDB:
-                regs.setB(naslavljanje(flags, operand));
+                regs.setB(naslavljanje(ni, operand));
                 break;
             case Opcode.LDCH:
                 regs.setA(mem.getByte(operand)); //samo en bajt, skrajno desni
 //                System.out.print("LDCH ");
 //                System.out.print("Naslov: "+ operand);
 //                System.out.print("Vrednost na naslovu;" + (mem.getByte(operand)));
-//                if(flags.isPreprosto())System.out.print("Preprosto");
+//                if(ni == PREPROSTO)System.out.print("Preprosto");
                 break;
             case Opcode.LDF:
                 notImplemented("LDF");
                 break;
             case Opcode.LDL:
-                regs.setL(naslavljanje(flags, operand));
+                regs.setL(naslavljanje(ni, operand));
                 break;
             case Opcode.LDS:
-                regs.setS(naslavljanje(flags, operand));
+                regs.setS(naslavljanje(ni, operand));
                 break;
             case Opcode.LDT:
-                regs.setT(naslavljanje(flags, operand));
+                regs.setT(naslavljanje(ni, operand));
                 break;
             case Opcode.LDX:
-                regs.setX(naslavljanje(flags, operand));
+                regs.setX(naslavljanje(ni, operand));
                 break;
             case Opcode.LPS:
-                notImplemented("LPS");
+                loadStatus(target(ni, operand));
+                dogodek = true; // nov SW lahko dovoli cakajoco prekinitev
                 break;
 
             case Opcode.MUL:
-                regs.setA(regs.getA() * naslavljanje(flags, operand));
+                regs.setA(regs.getA() * naslavljanje(ni, operand));
                 break;
             case Opcode.MULF:
                 notImplemented("MULF");
                 break;
             case Opcode.OR:
-                regs.setA(naslavljanje(flags, operand) | regs.getA());
+                regs.setA(naslavljanje(ni, operand) | regs.getA());
                 break;
             case Opcode.RSUB:
                 regs.setPC(regs.getL());
@@ -330,64 +1016,65 @@ public class Machine{
                 notImplemented("SSK");
                 break;
             case Opcode.STA:
-                mem.setWord(flags.isPosredno() ? mem.getWord(operand) : operand, regs.getA());
+                mem.setWord(target(ni, operand), regs.getA());
                 break;
             case Opcode.STB:
-                mem.setWord(flags.isPosredno() ? mem.getWord(operand) : operand, regs.getB());
+                mem.setWord(target(ni, operand), regs.getB());
                 break;
             case Opcode.STCH:
-                mem.setByte(flags.isPosredno() ? mem.getWord(operand) : operand, regs.getA() & 0xFF);
+                mem.setByte(target(ni, operand), regs.getA() & 0xFF);
                 break;
             case Opcode.STF:
                 notImplemented("STF");
                 break;
             case Opcode.STI:
-                notImplemented("STI");
+                noviTimer = naslavljanje(ni, operand);
+                dogodek = true;
                 break;
             case Opcode.STL:
-                mem.setWord(flags.isPosredno() ? mem.getWord(operand) : operand, regs.getL());
+                mem.setWord(target(ni, operand), regs.getL());
                 break;
             case Opcode.STS:
-                mem.setWord(flags.isPosredno() ? mem.getWord(operand) : operand, regs.getS());
+                mem.setWord(target(ni, operand), regs.getS());
                 break;
             case Opcode.STSW:
-                mem.setWord(flags.isPosredno() ? mem.getWord(operand) : operand, regs.getSW());
+                mem.setWord(target(ni, operand), regs.getSW());
                 break;
             case Opcode.STT:
-                mem.setWord(flags.isPosredno() ? mem.getWord(operand) : operand, regs.getT());
+                mem.setWord(target(ni, operand), regs.getT());
                 break;
             case Opcode.STX:
-                mem.setWord(flags.isPosredno() ? mem.getWord(operand) : operand, regs.getX());
+                mem.setWord(target(ni, operand), regs.getX());
                 break;
             case Opcode.SUB:
-                regs.setA(regs.getA() - naslavljanje(flags, operand));
+                regs.setA(regs.getA() - naslavljanje(ni, operand));
                 break;
             case Opcode.SUBF:
                 notImplemented("SUBF");
                 break;
             case Opcode.TD:
-                regs.setSW(devices[naslavljanjeDevices(flags,operand)].test() ? 0 : 0x40);
+                cakanjeNaprava = naslavljanjeDevices(ni, operand);
+                boolean pripravljena = device(cakanjeNaprava).test();
+                regs.setCC(pripravljena ? 0 : 0x40);
+                cakanje = !pripravljena;
                 break;
             case Opcode.TIX:
                 regs.setX(regs.getX() +1);
-                if(regs.getX() < naslavljanje(flags, operand))
-                    regs.setSW(0x00);
-                else if(regs.getX() > naslavljanje(flags, operand))
-                    regs.setSW(0x80);
-                else regs.setSW(0x40);
+                if(regs.getX() < naslavljanje(ni, operand))
+                    regs.setCC(0x00);
+                else if(regs.getX() > naslavljanje(ni, operand))
+                    regs.setCC(0x80);
+                else regs.setCC(0x40);
                 break;
             case Opcode.WD:
-                devices[naslavljanjeDevices(flags,operand)].write((byte)(regs.getA() & 0xFF));
+                device(naslavljanjeDevices(ni, operand)).write((byte)(regs.getA() & 0xFF));
                 break;
             case Opcode.RD:
-                byte data = devices[naslavljanjeDevices(flags,operand)].read();
+                byte data = device(naslavljanjeDevices(ni, operand)).read();
                 regs.setA(data);
                 break;
             default: return false;
         }
-        String s = String.format("0x%02x", opcode);
-        curOp = opcode;
-//        System.out.printf("Izvajam operacijo: %s - %s\n", s, Opcode.getMnemonic(opcode & 0xFF));
         return true;
     }
 
@@ -1,5 +1,6 @@
 package sic.simulator;
 
+import sic.simulator.UI.MemoryView;
 import sic.simulator.UI.SIM;
 import sic.simulator.UI.SIMEventListener;
 
@@ -16,15 +17,22 @@ public class Main{
 
         Reader r = new FileReader(args[0]);
         Machine m = new Machine();
-        Clock ura = new Clock(1, m);
+        Clock ura = new Clock(m); // brez omejitve hitrosti
         if(Utils.loadSection(m,r)){
             System.out.println("Load complete.");
         }
-        sim.getMemoryView().updateMemory(m.mem.memory);
+        m.snapshot(); // reset se vrne sem, brez ponovnega branja datoteke
+        //zgodovina za Back je vklopljena samo pri koracnem izvajanju: z njo se ukazi ne zdruzujejo in vsak ukaz
+        //se primerja, zato bi Start tekel nekajkrat pocasneje; zacne se ob prvem Step po nalaganju ali Start
+        UndoLog zgodovina = new UndoLog();
+        m.setUndoLog(zgodovina);
+        sim.getMemoryView().updateMemory(m.mem.getBytes(0, MemoryView.SIZE));
 
         //registrira se event listneer object, kjer overrajdamo metode
         sim.addSIMEventListener(new SIMEventListener() {
             @Override public void onStart() {
+                if(!ura.isRunning())
+                    m.setUndoLog(null); // polna hitrost, Back po tem gre samo do naslednjega Step
                 ura.start();
                 while(ura.isRunning())
                 sim.getRegisterView().updateOp(m.curOp);
@@ -34,13 +42,16 @@ public class Main{
                 sim.getRegisterView().updateReg("L", m.regs.getLs());
                 sim.getRegisterView().updateReg("S", m.regs.getSs());
                 sim.getRegisterView().updateReg("T", m.regs.getTs());
-                sim.getRegisterView().updateReg("F", "000000000000");
+                sim.getRegisterView().updateReg("F", m.regs.getFs());
                 sim.getRegisterView().updateReg("PC", m.regs.getPCs());
                 sim.getRegisterView().updateReg("SW", m.regs.getSWs());
-                sim.getMemoryView().updateMemory(m.mem.memory);
+                sim.getMemoryView().updateMemory(m.mem.getBytes(0, MemoryView.SIZE));
             }
             @Override public void onStep() {
-                m.execute();
+                if(m.getUndoLog() == null && !ura.isRunning())
+                    m.setUndoLog(zgodovina); // zgodovina se zacne tu
+                m.step();
+                m.flushDevices(); // pri koracnem izvajanju naj bo izhod viden takoj
                 sim.getRegisterView().updateOp(m.curOp);
                 sim.getRegisterView().updateReg("A", m.regs.getAs());
                 sim.getRegisterView().updateReg("B", m.regs.getBs());
@@ -48,10 +59,25 @@ public class Main{
                 sim.getRegisterView().updateReg("L", m.regs.getLs());
                 sim.getRegisterView().updateReg("S", m.regs.getSs());
                 sim.getRegisterView().updateReg("T", m.regs.getTs());
-                sim.getRegisterView().updateReg("F", "000000000000");
+                sim.getRegisterView().updateReg("F", m.regs.getFs());
                 sim.getRegisterView().updateReg("PC", m.regs.getPCs());
                 sim.getRegisterView().updateReg("SW", m.regs.getSWs());
-                sim.getMemoryView().updateMemory(m.mem.memory);
+                sim.getMemoryView().updateMemory(m.mem.getBytes(0, MemoryView.SIZE));
+            }
+            @Override public void onStepBack() {
+                ura.stop();
+                m.stepBack(1);
+                sim.getRegisterView().updateOp(m.curOp);
+                sim.getRegisterView().updateReg("A", m.regs.getAs());
+                sim.getRegisterView().updateReg("B", m.regs.getBs());
+                sim.getRegisterView().updateReg("X", m.regs.getXs());
+                sim.getRegisterView().updateReg("L", m.regs.getLs());
+                sim.getRegisterView().updateReg("S", m.regs.getSs());
+                sim.getRegisterView().updateReg("T", m.regs.getTs());
+                sim.getRegisterView().updateReg("F", m.regs.getFs());
+                sim.getRegisterView().updateReg("PC", m.regs.getPCs());
+                sim.getRegisterView().updateReg("SW", m.regs.getSWs());
+                sim.getMemoryView().updateMemory(m.mem.getBytes(0, MemoryView.SIZE));
             }
             @Override public void onStop() {
                 sim.getRegisterView().updateOp(m.curOp);
@@ -61,25 +87,18 @@ public class Main{
                 sim.getRegisterView().updateReg("L", m.regs.getLs());
                 sim.getRegisterView().updateReg("S", m.regs.getSs());
                 sim.getRegisterView().updateReg("T", m.regs.getTs());
-                sim.getRegisterView().updateReg("F", "000000000000");
+                sim.getRegisterView().updateReg("F", m.regs.getFs());
                 sim.getRegisterView().updateReg("PC", m.regs.getPCs());
                 sim.getRegisterView().updateReg("SW", m.regs.getSWs());
-                sim.getMemoryView().updateMemory(m.mem.memory);
+                sim.getMemoryView().updateMemory(m.mem.getBytes(0, MemoryView.SIZE));
                 ura.stop();
             }
             @Override public void onReset() {
                 ura.stop();
                 m.reset();
-                FileReader fr = null;
                 sim.getRegisterView().resetRegs();
-                try {
-                    fr = new FileReader(args[0]);
-                } catch (IOException e) {
-                    System.out.println("Error reset.");
-                }
                 sim.getRegisterView().resetOp();
-                Utils.loadSection(m, fr);
-                sim.getMemoryView().updateMemory(m.mem.memory);
+                sim.getMemoryView().updateMemory(m.mem.getBytes(0, MemoryView.SIZE));
             }
         });
 
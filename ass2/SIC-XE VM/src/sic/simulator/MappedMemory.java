@@ -0,0 +1,261 @@
+package sic.simulator;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+//pomnilnik v datoteki, preslikan v naslovni prostor (FileChannel.map), izven heapa
+//slika stroja tako ostane na disku: ponovni open je takojsnji (strani nalozi OS, ko jih beremo),
+//odprta samo za branje pa se lahko deli med procesi
+//semantika getByte/getWord/setByte/setWord je enaka kot pri PagedMemory, zapis izven pomnilnika vrze izjemo pred pisanjem
+//reset, snapshot in fork berejo samo strani iz bitnih tabel, ne cele datoteke: kaj je v sliki ob odprtju, ne vemo,
+//zato so tam na zacetku vse strani
+public class MappedMemory extends Memory{
+
+    private final FileChannel kanal;
+    private final MappedByteBuffer buf;
+    private final boolean samoBranje;
+    //bit na stran: stran morda ni prazna (zapisana od reset oziroma od snapshot, ki jo je nasel prazno)
+    private final long[] pisane;
+    //fork je kopija na heapu; zadnjo obdrzimo in ob naslednjem fork prepisemo samo strani, spremenjene od nje,
+    //ostale otroci delijo (copy-on-write v PagedMemory)
+    private PagedMemory kopija;
+    private final long[] odKopije; // bit na stran: spremenjena od zadnjega fork
+
+    private MappedMemory(FileChannel kanal, MappedByteBuffer buf, boolean samoBranje){
+        super(buf.capacity());
+        this.kanal = kanal;
+        this.buf = buf;
+        this.samoBranje = samoBranje;
+        this.pisane = new long[dirty.length];
+        this.odKopije = new long[dirty.length];
+        vse(pisane);
+        vse(odKopije);
+    }
+
+    //odpre (ali ustvari) sliko pomnilnika velikosti velikost; nova datoteka je polna nicel
+    public static MappedMemory open(Path datoteka, int velikost) throws IOException {
+        FileChannel kanal = FileChannel.open(datoteka, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new MappedMemory(kanal, kanal.map(FileChannel.MapMode.READ_WRITE, 0, velikost), false);
+    }
+
+    //samo za branje, npr. skupna slika za vec procesov; pisanje vrze ReadOnlyBufferException
+    public static MappedMemory openReadOnly(Path datoteka) throws IOException {
+        FileChannel kanal = FileChannel.open(datoteka, StandardOpenOption.READ);
+        int velikost = (int) kanal.size();
+        return new MappedMemory(kanal, kanal.map(FileChannel.MapMode.READ_ONLY, 0, velikost), true);
+    }
+
+    //oznaci vse strani pomnilnika
+    private void vse(long[] biti){
+        for(int i = 0; i < pages(); i++)
+            biti[i >>> 6] |= 1L << i;
+    }
+
+    private static boolean ima(long[] biti, int stran){
+        return (biti[stran >>> 6] & 1L << stran) != 0;
+    }
+
+    @Override
+    public int getAllocatedPages(){
+        return 0; // vsebina ni na heapu
+    }
+
+    private void dirty(int addr){
+        int stran = addr >>> PAGE_BITS;
+        long bit = 1L << stran;
+        dirty[stran >>> 6] |= bit;
+        pisane[stran >>> 6] |= bit;
+        odKopije[stran >>> 6] |= bit;
+    }
+
+    //dolzina strani v bajtih (zadnja je lahko krajsa)
+    private int dolzina(int stran){
+        return Math.min(PAGE_SIZE, size() - (stran << PAGE_BITS));
+    }
+
+    @Override
+    public int getByte(int addr){
+        return buf.get(addr) & 0xFF;
+    }
+
+    @Override
+    public void setByte(int addr, int val){
+        if(undo != null)
+            undo.memory(this, addr, 1);
+        buf.put(addr, (byte)(val & 0xFF));
+        dirty(addr);
+        written(addr, 1);
+    }
+
+    @Override
+    public int getWord(int addr){
+        return (buf.get(addr) & 0xFF) << 16 | (buf.get(addr + 1) & 0xFF) << 8 | buf.get(addr + 2) & 0xFF;
+    }
+
+    @Override
+    public void setWord(int addr, int val){
+        if(undo != null)
+            undo.memory(this, addr, 3);
+        buf.put(addr + 2, (byte)(val & 0xFF)); // najprej zadnji, kot v PagedMemory
+        buf.put(addr + 1, (byte)(val >> 8 & 0xFF));
+        buf.put(addr, (byte)(val >> 16 & 0xFF));
+        dirty(addr);
+        dirty(addr + 2);
+        written(addr, 3);
+    }
+
+    @Override
+    public void setBytes(int addr, byte[] src){
+        if(undo != null)
+            undo.memory(this, addr, src.length);
+        buf.put(addr, src);
+        for(int a = addr & ~PAGE_MASK; a < addr + src.length; a += PAGE_SIZE)
+            dirty(a);
+        written(addr, src.length);
+    }
+
+    @Override
+    boolean readPage(int stran, byte[] dst){
+        if(!ima(pisane, stran))
+            return false;
+        int n = dolzina(stran);
+        buf.get(stran << PAGE_BITS, dst, 0, n);
+        Arrays.fill(dst, n, PAGE_SIZE, (byte)0x00);
+        return !prazna(dst);
+    }
+
+    //pobrise samo strani, ki morda niso prazne
+    @Override
+    public void reset(){
+        byte[] stran = new byte[PAGE_SIZE];
+        for(int w = 0; w < pisane.length; w++){
+            long biti = pisane[w];
+            while(biti != 0){
+                int s = w << 6 | Long.numberOfTrailingZeros(biti);
+                biti &= biti - 1;
+                if(readPage(s, stran)){
+                    buf.put(s << PAGE_BITS, ZERO, 0, dolzina(s));
+                    dirty(s << PAGE_BITS);
+                }
+            }
+            pisane[w] = 0;
+        }
+        cleared();
+    }
+
+    private static boolean prazna(byte[] stran){
+        return Arrays.mismatch(stran, ZERO) < 0;
+    }
+
+    //posnetek je na heapu (prazne strani se delijo), zato ga lahko vrnemo tudi v PagedMemory
+    @Override
+    public Snapshot snapshot(){
+        byte[][] posnetek = new byte[pages()][];
+        Arrays.fill(posnetek, ZERO);
+        byte[] stran = new byte[PAGE_SIZE];
+        for(int s = 0; s < posnetek.length; s++){
+            if(!ima(pisane, s))
+                continue;
+            if(readPage(s, stran)){
+                posnetek[s] = stran;
+                stran = new byte[PAGE_SIZE];
+            }
+            else
+                pisane[s >>> 6] &= ~(1L << s);
+        }
+        Arrays.fill(dirty, 0);
+        osnova = new Snapshot(posnetek);
+        return osnova;
+    }
+
+    @Override
+    public void restore(Snapshot posnetek){
+        if(posnetek != osnova){
+            //drug posnetek, vrnit moramo vse strani, ki niso prazne na vsaj eni strani
+            for(int s = 0; s < pages(); s++){
+                if(ima(pisane, s) || s < posnetek.pages.length && posnetek.pages[s] != ZERO)
+                    dirty[s >>> 6] |= 1L << s;
+            }
+            osnova = posnetek;
+        }
+        for(int w = 0; w < dirty.length; w++){
+            long biti = dirty[w];
+            while(biti != 0){
+                int s = w << 6 | Long.numberOfTrailingZeros(biti);
+                biti &= biti - 1;
+                byte[] vir = s < posnetek.pages.length ? posnetek.pages[s] : ZERO;
+                vrni(s, vir);
+            }
+            dirty[w] = 0;
+        }
+    }
+
+    //prepise stran z vir (brez dirty, to uredi klicatelj)
+    private void vrni(int s, byte[] vir){
+        int a = s << PAGE_BITS;
+        buf.put(a, vir, 0, dolzina(s));
+        if(vir == ZERO)
+            pisane[s >>> 6] &= ~(1L << s);
+        else
+            pisane[s >>> 6] |= 1L << s;
+        odKopije[s >>> 6] |= 1L << s;
+        written(a, dolzina(s));
+    }
+
+    //strani iz fork se ne da deliti, zato se prepisejo tiste, ki se razlikujejo od kopije;
+    //ce je kopija nastala iz zadnjega fork, so to samo strani, ki jih deli drugace, in strani, zapisane od takrat
+    @Override
+    void copyFrom(Memory kopija){
+        PagedMemory vir = (PagedMemory) kopija;
+        byte[] nasa = new byte[PAGE_SIZE];
+        for(int s = 0; s < pages(); s++){
+            if(this.kopija != null && !ima(odKopije, s) && this.kopija.page(s) == vir.page(s))
+                continue;
+            byte[] stran = vir.page(s);
+            int n = dolzina(s);
+            buf.get(s << PAGE_BITS, nasa, 0, n);
+            if(Arrays.mismatch(stran, 0, n, nasa, 0, n) >= 0){
+                vrni(s, stran);
+                dirty[s >>> 6] |= 1L << s;
+            }
+        }
+        if(this.kopija != null){
+            this.kopija.copyFrom(vir);
+            Arrays.fill(odKopije, 0);
+        }
+    }
+
+    //otrok je na heapu: od zadnjega fork se prepisejo samo spremenjene strani, ostale deli s prejsnjimi otroki
+    @Override
+    public Memory fork(){
+        if(kopija == null)
+            kopija = new PagedMemory(size());
+        for(int w = 0; w < odKopije.length; w++){
+            long biti = odKopije[w];
+            while(biti != 0){
+                int s = w << 6 | Long.numberOfTrailingZeros(biti);
+                biti &= biti - 1;
+                byte[] stran = new byte[PAGE_SIZE];
+                readPage(s, stran);
+                kopija.setPage(s, stran);
+            }
+            odKopije[w] = 0;
+        }
+        return kopija.fork();
+    }
+
+    //zapise spremembe na disk
+    public void force(){
+        if(!samoBranje)
+            buf.force();
+    }
+
+    public void close() throws IOException {
+        force();
+        kanal.close();
+    }
+}
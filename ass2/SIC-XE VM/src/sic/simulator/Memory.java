@@ -2,44 +2,122 @@ package sic.simulator;
 
 import java.util.Arrays;
 
-public class Memory{
-    public byte[] memory;
+//skupno za vse pomnilnike stroja: 24 bitne besede, strani po 4 KB, poslusalci zapisov in posnetki
+//vsebino hrani podrazred: PagedMemory na heapu (strani se alocirajo ob prvem zapisu), MappedMemory v preslikani datoteki
+//zapisane strani se belezijo v bitni tabeli dirty, da restore(posnetek) vrne samo strani, spremenjene od posnetka
+public abstract class Memory{
+    static final int PAGE_BITS = 12;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+    //skupna prazna stran, vanjo se nikoli ne pise
+    static final byte[] ZERO = new byte[PAGE_SIZE];
 
-    public Memory(int velikost){ //maks velikost definirana v top razredu (Machine?)
-        this.memory = new byte[velikost];
+    private final int velikost;
+    //bit na stran: lahko se razlikuje od posnetka osnova (zapisana ali pobrisana po snapshot/restore)
+    final long[] dirty;
+    Snapshot osnova;
+
+    //slika pomnilnika; strani so kopije, zato se posnetek ne spreminja, ko program pise naprej
+    //prazne strani so ZERO, zato posnetek ene vrste pomnilnika lahko vrnemo tudi v drugo
+    public static final class Snapshot{
+        final byte[][] pages;
+
+        Snapshot(byte[][] pages){
+            this.pages = pages;
+        }
+    }
+
+    //obvestilo o zapisu, npr. za razveljavitev predekodiranih ali prevedenih ukazov
+    public interface WriteListener{
+        void written(int addr, int len);
+        default void cleared(){}
     }
 
-    public int getByte(int addr){
-        int unsigned = memory[addr] & 0xFF;
-        return unsigned; //ker ga castamo v int ga mormo se obrezat
+    private WriteListener[] listeners = new WriteListener[0];
+    //zgodovina za korake nazaj (Machine.setUndoLog) dobi stare bajte pred vsakim zapisom, null -> brez
+    UndoLog undo;
+
+    Memory(int velikost){ //maks velikost definirana v top razredu (Machine?)
+        this.velikost = velikost;
+        this.dirty = new long[(pages() + 63) >> 6];
     }
 
-    public void setByte(int addr, int val){
-        byte unsigned = (byte)(val & 0xFF);
-        memory[addr] = unsigned;
+    public void addWriteListener(WriteListener listener){
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
     }
 
-    public void reset(){
-        Arrays.fill(memory, (byte)0x00);
+    public void removeWriteListener(WriteListener listener){
+        for(int i = 0; i < listeners.length; i++){
+            if(listeners[i] == listener){
+                WriteListener[] nov = new WriteListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, nov, 0, i);
+                System.arraycopy(listeners, i + 1, nov, i, nov.length - i);
+                listeners = nov;
+                return;
+            }
+        }
     }
 
-    public int getWord(int addr){
-        int prvi,drugi,tretji;
-        prvi = getByte(addr);   //0x12
-        prvi = prvi << 16; // 2*byte 0x120000
-        drugi = getByte(addr+1);//nasledni bajt //0x34
-        drugi = drugi << 8; // 0x3400
-        tretji = getByte(addr+2);//nasledni bajt 0x56
+    void written(int addr, int len){
+        for(WriteListener l : listeners)
+            l.written(addr, len);
+    }
 
-        //0x123456
-        return  prvi | drugi | tretji;
+    void cleared(){
+        for(WriteListener l : listeners)
+            l.cleared();
     }
 
-    public void setWord(int addr, int val){
-        memory[addr+2] = (byte)(val & 0xFF); // 0x123456 -> 0x56
-        val = val >> 8; // 0x001234
-        memory[addr+1] = (byte)(val & 0xFF); //0x34
-        val = val >> 8; // 0x000012
-        memory[addr] = (byte)(val & 0xFF); // 0x12
+    public int size(){
+        return velikost;
+    }
+
+    //stevilo strani (zadnja je lahko krajsa)
+    int pages(){
+        return (velikost + PAGE_SIZE - 1) >> PAGE_BITS;
+    }
+
+    public abstract int getByte(int addr);
+
+    public abstract void setByte(int addr, int val);
+
+    public abstract int getWord(int addr);
+
+    //najprej zadnji bajt, tako da zapis izven pomnilnika ne spremeni nicesar
+    public abstract void setWord(int addr, int val);
+
+    //kopija obmocja, npr. za prikaz v UI
+    public byte[] getBytes(int addr, int len){
+        byte[] out = new byte[len];
+        for(int i = 0; i < len; i++)
+            out[i] = (byte) getByte(addr + i);
+        return out;
     }
-}
\ No newline at end of file
+
+    //zapise bajte iz src od naslova addr naprej (npr. prenos slike pomnilnika)
+    public abstract void setBytes(int addr, byte[] src);
+
+    //stevilo strani na heapu, ki jih ima ta pomnilnik sam (za porocila o porabi pomnilnika)
+    public abstract int getAllocatedPages();
+
+    //prepise stran v dst in vrne true, ce ni prazna (za checkpoint)
+    abstract boolean readPage(int stran, byte[] dst);
+
+    //pobrise vso vsebino, poslusalci dobijo cleared
+    public abstract void reset();
+
+    //zajame trenutno vsebino (npr. takoj po nalaganju programa), cena je sorazmerna z zapisanimi stranmi
+    public abstract Snapshot snapshot();
+
+    //vrne vsebino posnetka; prepise samo strani, spremenjene od zadnjega snapshot/restore istega posnetka,
+    //poslusalci dobijo obvestilo o zapisu za vsako vrnjeno stran
+    public abstract void restore(Snapshot posnetek);
+
+    //nov pomnilnik na heapu z enako vsebino, ki ga pisanje v ta pomnilnik ne spremeni (in obratno)
+    //klice se, ko ta pomnilnik nihce ne izvaja; poslusalci se ne prenesejo
+    public abstract Memory fork();
+
+    //vsebina pomnilnika iz fork (npr. tocka v UndoLog); kopija mora imet enako velikost in se ne sme vec pisat
+    abstract void copyFrom(Memory kopija);
+}
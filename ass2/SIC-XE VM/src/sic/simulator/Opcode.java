@@ -192,6 +192,8 @@ public class Opcode{
         mnemonic.put(LDA, "LDA");
         mnemonic.put(LDB, "LDB");
         mnemonic.put(LDCH, "LDCH");
+        mnemonic.put(LDF, "LDF");
+        mnemonic.put(LDL, "LDL");
         mnemonic.put(LDS, "LDS");
         mnemonic.put(LDT, "LDT");
         mnemonic.put(LDX, "LDX");
@@ -225,18 +227,20 @@ public class Opcode{
         mnemonic.put(TIXR, "TIXR");
         mnemonic.put(WD, "WD");
         mnemonic.put(TIO, "TIO");
+        mnemonic.put(STSW, "STSW");
         mnemonic.put(STT,"STT");
-        mnemonic.put(START,"START");
-        mnemonic.put(END,"END");
-        mnemonic.put(ORG,"ORG");
-        mnemonic.put(LTORG,"LTORG");
-        mnemonic.put(BASE,"BASE");
-        mnemonic.put(NOBASE,"NOBASE");
-        mnemonic.put(EQU,"EQU");
-        mnemonic.put(RESB,"RESB");
-        mnemonic.put(RESW,"RESW");
-        mnemonic.put(BYTE,"BYTE");
-        mnemonic.put(WORD,"WORD");
+        //direktive imajo kode 0-10, ki se prekrivajo z LDA, LDX in LDL; ukaz ima prednost
+        mnemonic.putIfAbsent(START,"START");
+        mnemonic.putIfAbsent(END,"END");
+        mnemonic.putIfAbsent(ORG,"ORG");
+        mnemonic.putIfAbsent(LTORG,"LTORG");
+        mnemonic.putIfAbsent(BASE,"BASE");
+        mnemonic.putIfAbsent(NOBASE,"NOBASE");
+        mnemonic.putIfAbsent(EQU,"EQU");
+        mnemonic.putIfAbsent(RESB,"RESB");
+        mnemonic.putIfAbsent(RESW,"RESW");
+        mnemonic.putIfAbsent(BYTE,"BYTE");
+        mnemonic.putIfAbsent(WORD,"WORD");
     }
     public static String getMnemonic(int opcode){
         return mnemonic.getOrDefault(opcode, "Neznan opcode");
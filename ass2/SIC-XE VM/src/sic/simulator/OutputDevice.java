@@ -2,23 +2,144 @@ package sic.simulator;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
+//izhod je v medpomnilniku, kdaj se izpise doloca Flush
+//stroj sam izprazni naprave ob ustavitvi (HALT, IO_WAIT, ...), glej Machine.flushDevices
+//metode so synchronized, ker lahko hkrati pise kanal (Channel) in stroj prazni medpomnilnik
 public class OutputDevice extends Device{
 
+    public enum Flush{
+        NEWLINE, // ob '\n' (za interaktivno delo)
+        FULL, // ko je medpomnilnik poln
+        HALT, // samo ob ustavitvi, medpomnilnik raste do MAX_HALT
+        INTERVAL // ko od zadnjega izpisa mine interval (preveri se ob pisanju in na koncu paketa, Machine.tick)
+    }
+
+    private static final int SIZE = 8192;
+    private static final int MAX_HALT = 1 << 24;
+
     private OutputStream output;
+    private Flush policy;
+    private long interval; // ns, za INTERVAL
+    private long zadnji; // cas zadnjega izpisa
+    private byte[] buf = new byte[SIZE];
+    private int n;
+    //naprava, ki si deli zaslon s to (stdout/stderr); njen izhod se izpise prej, da ostane vrstni red pisanja
+    private OutputDevice par;
 
 
     public OutputDevice(OutputStream output){
+        this(output, Flush.NEWLINE);
+    }
+
+    public OutputDevice(OutputStream output, Flush policy){
         this.output = output;
+        this.policy = policy;
+        this.interval = 100_000_000L;
+    }
+
+    //na napravi, ki jo ze uporablja stroj, naj se klice Machine.setPolicy, da stroj ve, ali mora gledat uro
+    public void setPolicy(Flush policy){
+        flush();
+        this.policy = policy;
+    }
+
+    public Flush getPolicy(){
+        return policy;
     }
+
+    public void setInterval(long millis){
+        this.interval = millis * 1_000_000L;
+    }
+
+    //povezi napravi, ki pisete na isti terminal (1 in 2)
+    public static void pair(OutputDevice a, OutputDevice b){
+        a.par = b;
+        b.par = a;
+    }
+
+    //par se izprazni izven zaklepa te naprave, da se napravi 1 in 2 ne moreta zaklenit druga na drugo
     @Override
-    public void write(byte data){ //implementiraj custom exception
+    public void write(byte data){
+        if(par != null && par.n > 0)
+            par.flush();
+        pisi(data);
+    }
+
+    private synchronized void pisi(byte data){
+        if(n == buf.length){
+            if(policy == Flush.HALT && buf.length < MAX_HALT)
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            else
+                flush();
+        }
+        buf[n++] = data;
+        switch(policy){
+            case NEWLINE:
+                if(data == '\n')
+                    flush();
+                break;
+            case INTERVAL:
+                if(System.nanoTime() - zadnji >= interval)
+                    flush();
+                break;
+            default:
+                break;
+        }
+    }
+
+    //pri INTERVAL izpise ostanek, ce je interval ze potekel (npr. zadnja vrstica brez '\n', program pa racuna naprej)
+    synchronized void flushElapsed(long zdaj){
+        if(policy == Flush.INTERVAL && n > 0 && zdaj - zadnji >= interval)
+            flush();
+    }
+
+    @Override
+    public synchronized void flush(){ //implementiraj custom exception
+        if(n == 0)
+            return;
         try {
-            this.output.write(data);
+            this.output.write(buf, 0, n);
             this.output.flush();
         } catch (IOException e) {
             System.out.println("Error writing to output stream");
         }
+        n = 0;
+        zadnji = System.nanoTime();
+    }
+
+    //blok gre v medpomnilnik naenkrat; pri NEWLINE in INTERVAL po en bajt zaradi preverjanja
+    @Override
+    public void write(byte[] b, int off, int len){
+        if(policy == Flush.NEWLINE || policy == Flush.INTERVAL){
+            super.write(b, off, len);
+            return;
+        }
+        if(par != null && par.n > 0)
+            par.flush();
+        pisi(b, off, len);
+    }
+
+    private synchronized void pisi(byte[] b, int off, int len){
+        while(len > 0){
+            if(n == buf.length){
+                if(policy == Flush.HALT && buf.length < MAX_HALT)
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                else
+                    flush();
+            }
+            int k = Math.min(len, buf.length - n);
+            System.arraycopy(b, off, buf, n, k);
+            n += k;
+            off += k;
+            len -= k;
+        }
+    }
+
+    @Override
+    public void close(){
+        flush();
     }
 
     @Override
@@ -26,4 +147,4 @@ public class OutputDevice extends Device{
         return this.output != null;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,227 @@
+package sic.simulator;
+
+import java.util.Arrays;
+
+//pomnilnik na heapu, razdeljen na strani po 4 KB, ki se alocirajo sele ob prvem zapisu
+//dokler strani nihce ne pise, kaze na skupno stran z niclami, tako da branje ne potrebuje preverjanja
+//stroj za majhen program tako zasede le nekaj strani, reset pa pobrise samo strani, ki so bile zapisane
+//fork() deli strani med strojema (copy-on-write): v stran, ki ni v owned, se ne pise, ampak se najprej skopira
+public class PagedMemory extends Memory{
+
+    private final byte[][] pages;
+    //bit na stran: stran je samo nasa in se lahko pise direktno (prazna in deljene strani niso)
+    private final long[] owned;
+
+    public PagedMemory(int velikost){
+        super(velikost);
+        this.pages = new byte[pages()][];
+        Arrays.fill(pages, ZERO);
+        this.owned = new long[dirty.length];
+    }
+
+    //kopija za fork, strani so deljene
+    private PagedMemory(PagedMemory stars){
+        super(stars.size());
+        this.pages = stars.pages.clone();
+        System.arraycopy(stars.dirty, 0, dirty, 0, dirty.length);
+        this.owned = new long[dirty.length];
+        this.osnova = stars.osnova;
+    }
+
+    //strani postanejo deljene, zato ob prvem zapisu v stran (v kateremkoli od obeh) pisoci dobi svojo kopijo
+    @Override
+    public PagedMemory fork(){
+        PagedMemory otrok = new PagedMemory(this);
+        Arrays.fill(owned, 0);
+        return otrok;
+    }
+
+    private boolean owned(int stran){
+        return (owned[stran >>> 6] & 1L << stran) != 0;
+    }
+
+    //stran za pisanje; prazna ali deljena se ob prvem zapisu zamenja s svojo kopijo
+    private byte[] writable(int addr){
+        int stran = addr >>> PAGE_BITS;
+        byte[] page = pages[stran];
+        if(!owned(stran)){
+            page = page == ZERO ? new byte[PAGE_SIZE] : page.clone();
+            pages[stran] = page;
+            owned[stran >>> 6] |= 1L << stran;
+        }
+        dirty[stran >>> 6] |= 1L << stran;
+        return page;
+    }
+
+    //tabela strani za primerjavo deljenih strani (MappedMemory), ne sme se pisat
+    byte[] page(int stran){
+        return pages[stran];
+    }
+
+    //zamenja stran z vsebino, ki je od zdaj samo nasa (prazna postane ZERO); brez undo in poslusalcev
+    void setPage(int stran, byte[] vsebina){
+        if(Arrays.mismatch(vsebina, ZERO) < 0){
+            pages[stran] = ZERO;
+            owned[stran >>> 6] &= ~(1L << stran);
+        }
+        else{
+            pages[stran] = vsebina;
+            owned[stran >>> 6] |= 1L << stran;
+        }
+        dirty[stran >>> 6] |= 1L << stran;
+    }
+
+    @Override
+    public int getAllocatedPages(){
+        int n = 0;
+        for(long biti : owned)
+            n += Long.bitCount(biti);
+        return n;
+    }
+
+    @Override
+    public int getByte(int addr){
+        int unsigned = pages[addr >>> PAGE_BITS][addr & PAGE_MASK] & 0xFF;
+        return unsigned; //ker ga castamo v int ga mormo se obrezat
+    }
+
+    @Override
+    public void setByte(int addr, int val){
+        if(undo != null)
+            undo.memory(this, addr, 1);
+        byte unsigned = (byte)(val & 0xFF);
+        writable(addr)[addr & PAGE_MASK] = unsigned;
+        written(addr, 1);
+    }
+
+    @Override
+    public void setBytes(int addr, byte[] src){
+        if(undo != null)
+            undo.memory(this, addr, src.length);
+        int i = 0;
+        while(i < src.length){
+            int a = addr + i;
+            int n = Math.min(src.length - i, PAGE_SIZE - (a & PAGE_MASK));
+            System.arraycopy(src, i, writable(a), a & PAGE_MASK, n);
+            i += n;
+        }
+        written(addr, src.length);
+    }
+
+    @Override
+    boolean readPage(int stran, byte[] dst){
+        byte[] page = pages[stran];
+        if(page == ZERO)
+            return false;
+        System.arraycopy(page, 0, dst, 0, PAGE_SIZE);
+        return Arrays.mismatch(page, ZERO) >= 0;
+    }
+
+    //zapisane strani pobrisemo in obdrzimo, da ponovni zagon istega programa ne alocira
+    //glede na posnetek so potem spremenjene, zato jih oznacimo v dirty
+    @Override
+    public void reset(){
+        for(int i = 0; i < pages.length; i++){
+            if(pages[i] != ZERO){
+                if(owned(i))
+                    Arrays.fill(pages[i], (byte)0x00);
+                else
+                    pages[i] = ZERO; // deljene ne smemo brisat
+                dirty[i >>> 6] |= 1L << i;
+            }
+        }
+        cleared();
+    }
+
+    @Override
+    public Snapshot snapshot(){
+        byte[][] kopija = new byte[pages.length][];
+        for(int i = 0; i < pages.length; i++)
+            kopija[i] = pages[i] == ZERO ? ZERO : pages[i].clone();
+        Arrays.fill(dirty, 0);
+        osnova = new Snapshot(kopija);
+        return osnova;
+    }
+
+    //strani se prepisejo v obstojece, zato ponovni zagon ne alocira; kjer stran ni nasa, se stran posnetka deli
+    @Override
+    public void restore(Snapshot posnetek){
+        if(posnetek != osnova){
+            //drug posnetek, primerjat moramo vse strani, ki niso prazne na vsaj eni strani
+            for(int i = 0; i < pages.length; i++){
+                if(pages[i] != ZERO || posnetek.pages[i] != ZERO)
+                    dirty[i >>> 6] |= 1L << i;
+            }
+            osnova = posnetek;
+        }
+        for(int w = 0; w < dirty.length; w++){
+            long biti = dirty[w];
+            while(biti != 0){
+                int stran = w << 6 | Long.numberOfTrailingZeros(biti);
+                biti &= biti - 1;
+                byte[] vir = posnetek.pages[stran];
+                if(!owned(stran))
+                    pages[stran] = vir; // posnetek se ne spreminja, zato ga lahko delimo
+                else if(vir == ZERO)
+                    Arrays.fill(pages[stran], (byte)0x00);
+                else
+                    System.arraycopy(vir, 0, pages[stran], 0, PAGE_SIZE);
+                written(stran << PAGE_BITS, PAGE_SIZE);
+            }
+            dirty[w] = 0;
+        }
+    }
+
+    //razlicne strani se samo delijo, kopirajo se sele ob zapisu
+    @Override
+    void copyFrom(Memory kopija){
+        byte[][] vir = ((PagedMemory) kopija).pages;
+        for(int i = 0; i < pages.length; i++){
+            if(pages[i] == vir[i])
+                continue;
+            pages[i] = vir[i];
+            owned[i >>> 6] &= ~(1L << i);
+            dirty[i >>> 6] |= 1L << i;
+            written(i << PAGE_BITS, PAGE_SIZE);
+        }
+    }
+
+    @Override
+    public int getWord(int addr){
+        int odmik = addr & PAGE_MASK;
+        if(odmik <= PAGE_SIZE - 3){
+            //cela beseda je na eni strani
+            byte[] page = pages[addr >>> PAGE_BITS];
+            return (page[odmik] & 0xFF) << 16 | (page[odmik + 1] & 0xFF) << 8 | page[odmik + 2] & 0xFF;
+        }
+        int prvi,drugi,tretji;
+        prvi = getByte(addr);   //0x12
+        prvi = prvi << 16; // 2*byte 0x120000
+        drugi = getByte(addr+1);//nasledni bajt //0x34
+        drugi = drugi << 8; // 0x3400
+        tretji = getByte(addr+2);//nasledni bajt 0x56
+
+        //0x123456
+        return  prvi | drugi | tretji;
+    }
+
+    @Override
+    public void setWord(int addr, int val){
+        if(undo != null)
+            undo.memory(this, addr, 3);
+        int odmik = addr & PAGE_MASK;
+        if(odmik <= PAGE_SIZE - 3){
+            byte[] page = writable(addr);
+            page[odmik + 2] = (byte)(val & 0xFF); // 0x123456 -> 0x56
+            page[odmik + 1] = (byte)(val >> 8 & 0xFF); //0x34
+            page[odmik] = (byte)(val >> 16 & 0xFF); // 0x12
+        }
+        else{
+            //beseda cez mejo strani, najprej zadnji bajt kot prej (izven pomnilnika se nic ne zapise)
+            writable(addr + 2)[(addr + 2) & PAGE_MASK] = (byte)(val & 0xFF);
+            writable(addr + 1)[(addr + 1) & PAGE_MASK] = (byte)(val >> 8 & 0xFF);
+            writable(addr)[odmik] = (byte)(val >> 16 & 0xFF);
+        }
+        written(addr, 3);
+    }
+}
@@ -0,0 +1,143 @@
+package sic.simulator;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+//profil izvajanja: kolikokrat se je izvedel ukaz na posameznem naslovu, mesanica ukazov in dostopi do strani pomnilnika
+//stroj ga klice iz execute, ce je nastavljen (Machine.setProfiler); brez profila je to samo en pogoj na ukaz
+//s profilom se ukazi ne zdruzujejo (Fusion) in JIT ne poganja prevedenih blokov, da se vidi vsak naslov
+//stevci so navadna polja long, profil uporablja samo nit stroja
+public class Profiler{
+
+    private final long[] naslovi; // po PC
+    private final long[] ukazi = new long[64]; // po opcode >> 2
+    private final long[] branja; // po straneh pomnilnika
+    private final long[] pisanja;
+    private Symbols oznake = new Symbols();
+    private CallGraph klici; // null -> brez grafa klicev
+
+    public Profiler(int velikost){
+        naslovi = new long[velikost];
+        int strani = (velikost + Memory.PAGE_SIZE - 1) >> Memory.PAGE_BITS;
+        branja = new long[strani];
+        pisanja = new long[strani];
+    }
+
+    //graf klicev (JSUB/RSUB) se steje skupaj s profilom
+    public CallGraph enableCallGraph(){
+        if(klici == null)
+            klici = new CallGraph();
+        return klici;
+    }
+
+    public CallGraph getCallGraph(){
+        return klici;
+    }
+
+    //izveden ukaz (dekodiran kot v DecodeCache); naslov je efektivni naslov operanda (za F3/F4 po razresitvi)
+    void count(int pc, long ukaz, int naslov){
+        naslovi[pc]++;
+        if(klici != null)
+            klici.count(pc, ukaz);
+        int opcode = DecodeCache.opcode(ukaz);
+        Dispatch.Entry e = Dispatch.TABLE[opcode];
+        ukazi[e.opcode >> 2]++;
+        if(e.format != Dispatch.F34 || (opcode & Machine.NI) == Machine.TAKOJSNJE || naslov < 0 || naslov >= naslovi.length)
+            return;
+        switch(e.handler){
+            case Opcode.J: case Opcode.JEQ: case Opcode.JGT: case Opcode.JLT: case Opcode.JSUB: case Opcode.RSUB:
+            case Dispatch.INVALID:
+                return; // brez dostopa do podatkov
+            case Opcode.STA: case Opcode.STB: case Opcode.STCH: case Opcode.STF: case Opcode.STL:
+            case Opcode.STS: case Opcode.STSW: case Opcode.STT: case Opcode.STX:
+                pisanja[naslov >> Memory.PAGE_BITS]++;
+                return;
+            default:
+                branja[naslov >> Memory.PAGE_BITS]++;
+        }
+    }
+
+    public void clear(){
+        Arrays.fill(naslovi, 0);
+        Arrays.fill(ukazi, 0);
+        Arrays.fill(branja, 0);
+        Arrays.fill(pisanja, 0);
+        if(klici != null)
+            klici.clear();
+    }
+
+    public long getCount(int pc){
+        return naslovi[pc];
+    }
+
+    public long getOpcodeCount(int opcode){
+        return ukazi[(opcode & 0xFF) >> 2];
+    }
+
+    public long getPageReads(int stran){
+        return branja[stran];
+    }
+
+    public long getPageWrites(int stran){
+        return pisanja[stran];
+    }
+
+    //oznake za porocilo (npr. Symbols.load iz .lst)
+    public void setSymbols(Symbols oznake){
+        this.oznake = oznake;
+    }
+
+    public String label(int pc){
+        return oznake.label(pc);
+    }
+
+    //porocilo: top najbolj vrocih naslovov, mesanica ukazov in strani z dostopi
+    public void report(PrintStream out, Memory mem, int top){
+        long skupaj = 0;
+        for(long c : naslovi)
+            skupaj += c;
+        out.printf("Profil: %d ukazov%n", skupaj);
+        if(skupaj == 0)
+            return;
+
+        hotList(out, naslovi, skupaj, mem, oznake, top);
+
+        Integer[] op = new Integer[ukazi.length];
+        for(int i = 0; i < op.length; i++)
+            op[i] = i;
+        Arrays.sort(op, (a, b) -> Long.compare(ukazi[b], ukazi[a]));
+        out.println("Mesanica ukazov:");
+        for(int i : op){
+            if(ukazi[i] == 0)
+                break;
+            out.printf("  %-6s %12d  %5.1f%%%n", Opcode.getMnemonic(i << 2), ukazi[i], 100.0 * ukazi[i] / skupaj);
+        }
+
+        out.println("Dostopi do strani (branja / pisanja):");
+        for(int s = 0; s < branja.length; s++){
+            if(branja[s] != 0 || pisanja[s] != 0)
+                out.printf("  %05X  %12d %12d%n", s << Memory.PAGE_BITS, branja[s], pisanja[s]);
+        }
+        if(klici != null)
+            klici.report(out, this);
+    }
+
+    //top naslovov po stevcih (tudi za Sampler); mnemonik na naslovu se prebere iz pomnilnika
+    static void hotList(PrintStream out, long[] stevci, long skupaj, Memory mem, Symbols oznake, int top){
+        //sortirajo se samo naslovi z nenicelnim stevcem, teh je malo v primerjavi s pomnilnikom
+        Integer[] vroci = new Integer[stevci.length];
+        int n = 0;
+        for(int pc = 0; pc < stevci.length; pc++){
+            if(stevci[pc] != 0)
+                vroci[n++] = pc;
+        }
+        vroci = Arrays.copyOf(vroci, n);
+        Arrays.sort(vroci, (a, b) -> Long.compare(stevci[b], stevci[a]));
+        out.println("Najbolj vroci naslovi:");
+        for(int i = 0; i < Math.min(top, n); i++){
+            int pc = vroci[i];
+            out.printf("  %05X  %-16s %-6s %12d  %5.1f%%%n", pc, oznake.label(pc), Opcode.getMnemonic(mem.getByte(pc) & 0xFC),
+                    stevci[pc], 100.0 * stevci[pc] / skupaj);
+        }
+    }
+}
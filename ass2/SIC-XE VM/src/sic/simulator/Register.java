@@ -1,9 +1,20 @@
 package sic.simulator;
 
 public class Register{
-    private Object[] registers;
+    //24 bitni registri so v int tabeli: A, X, L, B, S, T na svojih SIC/XE stevilkah (0-5), PC na 6 in SW na 7
+    //(F je 48 biten in je posebej, stevilka 7 ni register), F2 ukazi pridejo do indeksa z index(stevilka)
+    //vidno v paketu, ker do njega direktno dostopa koda iz JitEngine
+    final int[] registers;
+    //F je 48 biten v SIC/XE formatu: predznak (1) | eksponent (11, odmik 1024) | ulomek (36)
+    //vrednost = (-1)^s * 0.ulomek * 2^(eksponent - 1024), ulomek je normaliziran (prvi bit 1), 0 so sami nicli
+    private long f;
 
     private static final int MASK = 0xFFFFFF;
+    private static final long MASK_F = 0xFFFFFFFFFFFFL;
+    private static final int FRAC_BITS = 36;
+    private static final long FRAC_MASK = (1L << FRAC_BITS) - 1;
+    private static final int EXP_BIAS = 1024;
+    private static final int EXP_MAX = 0x7FF;
 
 
     public static final int A = 0;
@@ -15,27 +26,43 @@ public class Register{
     public static final int F = 6;
     public static final int PC = 8;
     public static final int SW = 9;
+    //indeksa PC in SW v registers
+    static final int PC_INDEX = 6;
+    static final int SW_INDEX = 7;
+    static final int COUNT = 8;
+
+    //SW: CC (rezultat primerjave) je v spodnjem bajtu kot 0x00/0x40/0x80, ostala polja so za prekinitve (glej Interrupt)
+    public static final int CC = 0xC0;
 
     public Register(){
-        //inicializacija
-        this.registers = new Object[10];
-        for(int i = 0; i < 10; i++){
-            if(i != 6)
-                registers[i] = 0;
-            else
-                registers[i] = 0.0f;
-        }
+        //inicializacija, vse na 0
+        this.registers = new int[COUNT];
+        this.f = 0;
+    }
+
+    //kopija, npr. za posnetek stanja stroja
+    public Register(Register other){
+        this.registers = other.registers.clone();
+        this.f = other.f;
+    }
+
+    //prepise vrednosti iz other brez alokacije (tabela registers ostane ista, nanjo se lahko kdo sklicuje)
+    public void copyFrom(Register other){
+        System.arraycopy(other.registers, 0, registers, 0, registers.length);
+        this.f = other.f;
     }
 
-    public int getA(){ return (int)registers[A];}
-    public int getX(){ return (int)registers[X];}
-    public int getL(){ return (int)registers[L];}
-    public int getB(){ return (int)registers[B];}
-    public int getS(){ return (int)registers[S];}
-    public int getT(){ return (int)registers[T];}
-    public float getF(){ return (float)registers[F];}
-    public int getPC(){ return (int)registers[PC];}
-    public int getSW(){ return (int)registers[SW];}
+    public int getA(){ return registers[A];}
+    public int getX(){ return registers[X];}
+    public int getL(){ return registers[L];}
+    public int getB(){ return registers[B];}
+    public int getS(){ return registers[S];}
+    public int getT(){ return registers[T];}
+    public double getF(){ return toDouble(f);}
+    public long getFRaw(){ return f;}
+    public int getPC(){ return registers[PC_INDEX];}
+    public int getSW(){ return registers[SW_INDEX];}
+    public int getCC(){ return registers[SW_INDEX] & CC;}
 
     public String getAs(){return String.format("%6s", Integer.toHexString(getA()).toUpperCase()).replace(' ', '0');}
     public String getXs(){return String.format("%6s", Integer.toHexString(getX()).toUpperCase()).replace(' ', '0');}
@@ -43,7 +70,7 @@ public class Register{
     public String getBs(){return String.format("%6s", Integer.toHexString(getB()).toUpperCase()).replace(' ', '0');}
     public String getSs(){return String.format("%6s", Integer.toHexString(getS()).toUpperCase()).replace(' ', '0');}
     public String getTs(){return String.format("%6s", Integer.toHexString(getT()).toUpperCase()).replace(' ', '0');}
-    public String getFs(){return String.format("%6s", Float.toHexString(getF()).toUpperCase()).replace(' ', '0');}
+    public String getFs(){return String.format("%012X", getFRaw());}
     public String getPCs(){return String.format("%6s", Integer.toHexString(getPC()).toUpperCase()).replace(' ', '0');}
     public String getSWs(){return String.format("%6s", Integer.toHexString(getSW()).toUpperCase()).replace(' ', '0');}
 
@@ -59,37 +86,66 @@ public class Register{
     public void setB(int val){this.registers[B] = skrajšaj(val);}
     public void setS(int val){this.registers[S] = skrajšaj(val);}
     public void setT(int val){this.registers[T] = skrajšaj(val);}
-    public void setF(float val){this.registers[F] = val;}
-    public void setPC(int val){this.registers[PC] = skrajšaj(val);}
-    public void setSW(int val){this.registers[SW] = skrajšaj(val);}
-
-    public Object getReg(int reg){
-        if(reg >= 0 && reg < registers.length)
-            return registers[reg];
-        else
-            throw new IndexOutOfBoundsException("Register index out of bounds");
+    public void setF(double val){this.f = fromDouble(val);}
+    public void setFRaw(long val){this.f = val & MASK_F;}
+    public void setPC(int val){this.registers[PC_INDEX] = skrajšaj(val);}
+    public void setSW(int val){this.registers[SW_INDEX] = skrajšaj(val);}
+    //primerjave spremenijo samo CC, maska in ostala polja SW ostanejo
+    public void setCC(int cc){this.registers[SW_INDEX] = registers[SW_INDEX] & ~CC | cc;}
+
+    //ali je stevilka 24 bitni register za F2 ukaze (F in 7 nista, ukaz z njima je neveljaven)
+    static boolean isWord(int reg){
+        return reg < F || reg == PC || reg == SW;
     }
 
-    public void setReg(int reg, Object val){
-        if(reg < 0 || reg >= registers.length){
-            throw new IndexOutOfBoundsException("Register index out of bounds");
-        }
-        else if(reg == F){
-            if(val instanceof Float){
-                registers[reg] = val;
-            }
-            else{
-                throw new IllegalArgumentException("For a floating point register, floating point number required");
-            }
-        }
-        else{
-            if(val instanceof Integer){
-                registers[reg] = skrajšaj((Integer) val);
-            }
-            else{
-                throw new IllegalArgumentException("For a integer register, integer number required");
-            }
+    //SIC/XE stevilka registra -> indeks v registers in obratno, samo za isWord
+    static int index(int reg){
+        return reg < F ? reg : reg - 2;
+    }
+
+    static int number(int index){
+        return index < F ? index : index + 2;
+    }
+
+    //za F2 ukaze po SIC/XE stevilki, reg mora biti isWord; F se bere z getF/getFRaw
+    public int getReg(int reg){
+        return registers[index(reg)];
+    }
+
+    public void setReg(int reg, int val){
+        registers[index(reg)] = skrajšaj(val);
+    }
+
+
+    //SIC/XE float (48 bitov) -> double
+    public static double toDouble(long raw){
+        long ulomek = raw & FRAC_MASK;
+        if(ulomek == 0)
+            return 0.0;
+        int eksponent = (int) (raw >>> FRAC_BITS) & EXP_MAX;
+        double val = Math.scalb((double) ulomek, eksponent - EXP_BIAS - FRAC_BITS);
+        return (raw >>> 47 & 1) != 0 ? -val : val;
+    }
+
+    //double -> SIC/XE float (48 bitov), zaokrozi na 36 bitov ulomka
+    public static long fromDouble(double val){
+        if(val == 0.0 || Double.isNaN(val))
+            return 0;
+        long predznak = val < 0 ? 1L << 47 : 0;
+        val = Math.abs(val);
+        //val = m * 2^eksponent, m v [0.5, 1)
+        int eksponent = Math.getExponent(val) + 1;
+        long ulomek = Math.round(Math.scalb(val, FRAC_BITS - eksponent));
+        if(ulomek > FRAC_MASK){ // zaokrozitev je prelezla v naslednjo potenco
+            ulomek >>>= 1;
+            eksponent++;
         }
+        int e = eksponent + EXP_BIAS;
+        if(e < 0)
+            return 0; // premajhno -> 0
+        if(e > EXP_MAX || Double.isInfinite(val))
+            return predznak | (long) EXP_MAX << FRAC_BITS | FRAC_MASK; // nasicenje
+        return predznak | (long) e << FRAC_BITS | ulomek;
     }
 
 
@@ -0,0 +1,101 @@
+package sic.simulator;
+
+import java.io.PrintStream;
+import java.util.concurrent.locks.LockSupport;
+
+//vzorcni profil: nit v ozadju z dano frekvenco prebere naslov ukaza, ki ga stroj izvaja, in steje, kolikokrat je bil
+//na posameznem naslovu; stroj pri tem zapise samo zacetek ukaza, zato za razliko od Profiler skoraj ne vpliva na cas
+//izvajanja (ukazi se med vzorcenjem ne zdruzujejo, da ima vsak svoj cas); prevedeni JIT blok se izvede naenkrat,
+//zato se vzorci po vrsti razdelijo med njegove ukaze; pri dovolj vzorcih se delezi priblizajo tocnemu profilu
+//histogram pise samo nit vzorcenja, porocilo se bere po stop
+public class Sampler{
+
+    private final Machine m;
+    private final long perioda; // ns med vzorci
+    private final long[] vzorci;
+    private long skupaj;
+    private volatile boolean tece;
+    private Thread nit;
+
+    public Sampler(Machine m, int hz){
+        if(hz <= 0)
+            throw new IllegalArgumentException("Neveljavna frekvenca vzorcenja: " + hz);
+        this.m = m;
+        this.perioda = 1_000_000_000L / hz;
+        this.vzorci = new long[m.mem.size()];
+    }
+
+    public synchronized void start(){
+        if(nit != null)
+            return;
+        tece = true;
+        m.setSampled(true);
+        nit = new Thread(this::vzorci, "sic-sampler");
+        nit.setDaemon(true);
+        nit.start();
+    }
+
+    //ustavi nit in pocaka nanjo, da je histogram viden
+    public synchronized void stop(){
+        if(nit == null)
+            return;
+        tece = false;
+        LockSupport.unpark(nit);
+        try {
+            nit.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        nit = null;
+        m.setSampled(false);
+    }
+
+    //vzorci po urniku; ce nit zamudi (npr. GC), se urnik premakne, namesto da bi vzorce nadoknadila naenkrat
+    private void vzorci(){
+        long naslednji = System.nanoTime();
+        while(tece){
+            int izvaja = m.getExecutingOpaque();
+            int pc = izvaja & 0xFFFFFF;
+            //i-ti ukaz od zacetka, dolzine se berejo iz pomnilnika (DecodeCache ni za druge niti)
+            for(int i = (int) (skupaj % Math.max(izvaja >>> 24, 1)); i > 0 && pc < vzorci.length; i--)
+                pc += dolzina(pc);
+            if(pc < vzorci.length){
+                vzorci[pc]++;
+                skupaj++;
+            }
+            naslednji += perioda;
+            long cakaj = naslednji - System.nanoTime();
+            if(cakaj > 0)
+                LockSupport.parkNanos(this, cakaj);
+            else
+                naslednji = System.nanoTime();
+        }
+    }
+
+    private int dolzina(int pc){
+        int opcode = m.mem.getByte(pc);
+        switch(Dispatch.TABLE[opcode].format){
+            case Dispatch.F1:
+                return 1;
+            case Dispatch.F2:
+                return 2;
+        }
+        if((opcode & Machine.NI) == Machine.SIC || pc + 1 >= vzorci.length)
+            return 3;
+        return (m.mem.getByte(pc + 1) & 0x10) != 0 ? 4 : 3;
+    }
+
+    public long getSamples(int pc){
+        return vzorci[pc];
+    }
+
+    public long getTotal(){
+        return skupaj;
+    }
+
+    public void report(PrintStream out, Memory mem, Symbols oznake, int top){
+        out.printf("Vzorci: %d (%d Hz)%n", skupaj, 1_000_000_000L / perioda);
+        if(skupaj > 0)
+            Profiler.hotList(out, vzorci, skupaj, mem, oznake, top);
+    }
+}
@@ -0,0 +1,49 @@
+package sic.simulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+//oznake programa (naslov -> ime) za porocila profilov, brez oznak se izpise samo naslov
+public class Symbols{
+
+    private final TreeMap<Integer, String> oznake = new TreeMap<>();
+
+    //prebere oznake iz .lst, ki ga zapise assembler (UTF-16, vrstica "NASLOV  KODA   oznaka\t ukaz ...")
+    //koda se zacne v stolpcu 7, ce je ni (RESW, START), je tam presledek; EQU ni naslov, zato se preskoci
+    public static Symbols load(Path lst) throws IOException {
+        Symbols s = new Symbols();
+        try(BufferedReader r = Files.newBufferedReader(lst, StandardCharsets.UTF_16BE)){
+            String vrstica;
+            while((vrstica = r.readLine()) != null){
+                int tab = vrstica.indexOf('\t');
+                if(tab < 7 || !vrstica.substring(0, 5).matches("[0-9A-F]{5}"))
+                    continue;
+                if(vrstica.substring(tab + 1).trim().startsWith("EQU"))
+                    continue;
+                String ostalo = vrstica.substring(7, tab);
+                if(!ostalo.startsWith(" ")){
+                    int konec = ostalo.indexOf(' ');
+                    ostalo = konec < 0 ? "" : ostalo.substring(konec);
+                }
+                String oznaka = ostalo.trim();
+                if(!oznaka.isEmpty())
+                    s.oznake.put(Integer.parseInt(vrstica.substring(0, 5), 16), oznaka); // kasnejsa oznaka na istem naslovu prevlada (START)
+            }
+        }
+        return s;
+    }
+
+    //najblizja oznaka pred naslovom, npr. "inner+6"; brez oznak samo naslov
+    public String label(int pc){
+        Map.Entry<Integer, String> e = oznake.floorEntry(pc);
+        if(e == null)
+            return String.format("%05X", pc);
+        int odmik = pc - e.getKey();
+        return odmik == 0 ? e.getValue() : e.getValue() + "+" + Integer.toHexString(odmik).toUpperCase();
+    }
+}
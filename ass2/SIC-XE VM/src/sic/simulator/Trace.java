@@ -0,0 +1,127 @@
+package sic.simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+//binarna sled izvajanja: za vsak izveden ukaz zapis fiksne velikosti (16 bajtov) v obroc, nit v ozadju ga prazni v datoteko
+//datoteka: glava (SICT, verzija, velikost zapisa), nato zapisi, vsak dva long (big endian):
+//  PC (24) | opcode z n in i (8) | efektivni naslov oz. operand (24) | 0 (8)
+//  A (24) | X (24) | SW (spodnjih 16 bitov: CC, maska in ICODE, glej Interrupt)
+//A, X in SW so vrednosti po izvedbi ukaza; spremembe izracuna TraceDump iz prejsnjega zapisa, da stroj ne primerja
+//obroc ima enega pisca (stroj) in enega bralca (pisalna nit); stroj objavi zapise samo vsakih BATCH ukazov,
+//zato ukaz stane samo dva zapisa v obroc in eno primerjavo; ce je obroc poln, stroj pocaka na pisalno nit
+//obroc je direkten ByteBuffer (big endian kot datoteka), da ga pisalna nit zapise brez kopiranja
+//pisalna nit se zbuja sama (vsako ms), stroj jo zbudi samo, ko je obroc na pol poln: budjenje ob vsakem paketu
+//na enem jedru pomeni preklop niti na vsakih BATCH ukazov
+public class Trace implements AutoCloseable{
+
+    static final int MAGIC = 0x53494354; // "SICT"
+    static final int VERSION = 1;
+    static final int RECORD = 16;
+
+    private static final int SIZE = 1 << 15; // zapisov v obrocu (512 KB, ostane v predpomnilniku), potenca 2
+    private static final int MASK = SIZE - 1;
+    private static final int BATCH = 1024;
+
+    private final ByteBuffer obroc = ByteBuffer.allocateDirect(SIZE * RECORD);
+    private final FileChannel file;
+    private final Thread pisalec;
+    //samo nit stroja
+    private long n; // napisanih zapisov
+    private long meja; // pri tem n se objavi head in preveri prostor
+    //head premika samo stroj, tail samo pisalna nit
+    private volatile long head;
+    private volatile long tail;
+    private volatile boolean konec;
+    private volatile boolean napaka;
+
+    public Trace(Path datoteka) throws IOException {
+        file = FileChannel.open(datoteka, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer glava = ByteBuffer.allocate(12);
+        glava.putInt(MAGIC).putInt(VERSION).putInt(RECORD).flip();
+        while(glava.hasRemaining())
+            file.write(glava);
+        meja = BATCH;
+        pisalec = new Thread(this::pisi, "sic-trace");
+        pisalec.setDaemon(true);
+        pisalec.start();
+    }
+
+    //klice stroj po vsakem izvedenem ukazu
+    void record(int pc, int opcode, int naslov, Register regs){
+        record(pc, opcode, naslov, regs.getA(), regs.getX(), regs.getSW());
+    }
+
+    //zdruzen ukaz (Machine.fused) poda registre za vsak ukaz v skupini posebej
+    void record(int pc, int opcode, int naslov, int a, int x, int sw){
+        int i = ((int) n & MASK) * RECORD;
+        obroc.putLong(i, (long) pc << 40 | (long) opcode << 32 | (long) (naslov & 0xFFFFFF) << 8);
+        obroc.putLong(i + 8, (long) a << 40 | (long) x << 16 | sw & 0xFFFF);
+        if(++n == meja)
+            objavi();
+    }
+
+    //objavi napisane zapise in po potrebi pocaka, da je v obrocu prostor za naslednji paket
+    private void objavi(){
+        head = n;
+        if(n - tail > SIZE / 2)
+            LockSupport.unpark(pisalec);
+        while(n + BATCH - tail > SIZE && pisalec.isAlive())
+            LockSupport.parkNanos(50_000);
+        meja = n + BATCH;
+    }
+
+    //pisalna nit: zapise objavljene zapise v datoteko direktno iz obroca (do konca obroca, ostalo v naslednjem krogu)
+    private void pisi(){
+        ByteBuffer buf = obroc.duplicate(); // svoj polozaj in meja, stroj pise z absolutnimi indeksi
+        long t = tail;
+        while(true){
+            long h = head;
+            if(h == t){
+                if(konec && head == t)
+                    break;
+                LockSupport.parkNanos(this, 1_000_000);
+                continue;
+            }
+            while(t < h){
+                int od = (int) t & MASK;
+                int k = (int) Math.min(Math.min(h - t, SIZE - od), 4 * BATCH);
+                buf.limit((od + k) * RECORD).position(od * RECORD);
+                try {
+                    while(buf.hasRemaining())
+                        file.write(buf);
+                } catch (IOException e) {
+                    if(!napaka)
+                        System.err.println("Error writing trace: " + e.getMessage());
+                    napaka = true; // ostale zapise zavrzemo, da stroj ne caka
+                }
+                t += k;
+                tail = t;
+            }
+        }
+    }
+
+    public long getRecords(){
+        return n;
+    }
+
+    //zapise ostanek obroca in zapre datoteko; klice se, ko stroj ne tece (in po Machine.setTrace(null))
+    @Override
+    public void close() throws IOException {
+        head = n;
+        konec = true;
+        LockSupport.unpark(pisalec);
+        try {
+            pisalec.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        file.close();
+        if(napaka)
+            throw new IOException("Sled ni v celoti zapisana");
+    }
+}
@@ -0,0 +1,81 @@
+package sic.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+//izpis binarne sledi (Trace) v berljivi obliki, ena vrstica na ukaz:
+//  stevilka ukaza, PC, mnemonik, operand (#vrednost, efektivni naslov ali registra pri F2) in spremenjeni registri
+public class TraceDump{
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1){
+            System.err.println("Uporaba: java sic.simulator.TraceDump <sled.trc> [od ukaza] [stevilo ukazov]");
+            System.exit(2);
+        }
+        long od = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        long koliko = args.length > 2 ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Path.of(args[0])), 1 << 16))){
+            if(in.readInt() != Trace.MAGIC){
+                System.err.println("Ni datoteka s sledjo: " + args[0]);
+                System.exit(1);
+            }
+            int verzija = in.readInt();
+            int velikost = in.readInt();
+            if(verzija != Trace.VERSION || velikost != Trace.RECORD){
+                System.err.println("Nepodprta verzija sledi: " + verzija);
+                System.exit(1);
+            }
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+            in.skipNBytes(Math.min(od, Long.MAX_VALUE / Trace.RECORD) * Trace.RECORD);
+            long prejsnji = 0;
+            for(long i = od; i - od < koliko; i++){
+                long prvi, drugi;
+                try {
+                    prvi = in.readLong();
+                    drugi = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                out.println(vrstica(i, prvi, drugi, i == od ? ~drugi : prejsnji)); // prvi izpisan zapis pokaze vse registre
+                prejsnji = drugi;
+            }
+            out.flush();
+        } catch (EOFException e) {
+            System.err.println("Sled je krajsa od " + od + " ukazov");
+        }
+    }
+
+    //drugi in prejsnji: A (24) | X (24) | SW (16), izpisejo se samo registri, ki so drugacni kot v prejsnjem zapisu
+    static String vrstica(long i, long prvi, long drugi, long prejsnji){
+        int pc = (int) (prvi >>> 40) & 0xFFFFFF;
+        int opcode = (int) (prvi >>> 32) & 0xFF;
+        int naslov = (int) (prvi >>> 8) & 0xFFFFFF;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%10d  %05X  %-6s", i, pc, Opcode.getMnemonic(opcode & 0xFC)));
+        Dispatch.Entry e = Dispatch.TABLE[opcode];
+        String operand = "";
+        if(e.format == Dispatch.F2)
+            operand = String.format("%02X", naslov & 0xFF); // registra r1 r2
+        else if(e.format == Dispatch.F34 && e.handler != Opcode.RSUB){
+            int ni = opcode & Machine.NI;
+            operand = (ni == Machine.TAKOJSNJE ? "#" : "") + String.format("%06X", naslov);
+        }
+        sb.append(String.format("  %-8s", operand));
+        long razlika = drugi ^ prejsnji;
+        if((razlika >>> 40) != 0)
+            sb.append(String.format(" A=%06X", (int) (drugi >>> 40) & 0xFFFFFF));
+        if((razlika >>> 16 & 0xFFFFFF) != 0)
+            sb.append(String.format(" X=%06X", (int) (drugi >>> 16) & 0xFFFFFF));
+        if((razlika & 0xFFFF) != 0)
+            sb.append(String.format(" SW=%04X", (int) drugi & 0xFFFF));
+        return sb.toString().stripTrailing();
+    }
+}
@@ -6,6 +6,8 @@ import java.awt.*;
 
 public class MemoryView extends JPanel {
     private JTextArea memoryArea;
+    //koliko bajtov od zacetka pomnilnika prikazemo
+    public static final int SIZE = 1008;
 
     public MemoryView() {
         setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
@@ -27,7 +29,7 @@ public class MemoryView extends JPanel {
         StringBuilder sb = new StringBuilder();
         final int cols = 16;
 
-        for (int i = 0; i < 1000; i += cols) {
+        for (int i = 0; i + cols <= data.length; i += cols) {
             //začetn naslov vrstice
             sb.append(String.format("%06X: ", i));
 
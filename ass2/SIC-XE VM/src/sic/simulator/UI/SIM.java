@@ -45,16 +45,19 @@ public class SIM extends javax.swing.JFrame {
         JButton stopButton = new JButton("Stop");
         JButton resetButton = new JButton("Reset");
         JButton stepButton = new JButton("Step");
+        JButton backButton = new JButton("Back");
 
         startButton.addActionListener(e -> {listener.onStart();});
         stopButton.addActionListener(e -> {listener.onStop();});
         resetButton.addActionListener(e -> {listener.onReset();});
         stepButton.addActionListener(e -> {listener.onStep();});
+        backButton.addActionListener(e -> {listener.onStepBack();});
 
         controlPanel.add(startButton);
         controlPanel.add(stopButton);
         controlPanel.add(resetButton);
         controlPanel.add(stepButton);
+        controlPanel.add(backButton);
         return controlPanel;
     }
 
@@ -4,5 +4,6 @@ public interface SIMEventListener {
     void onStart();
     void onStop();
     void onStep();
+    void onStepBack(); // en ukaz nazaj po zgodovini
     void onReset();
 }
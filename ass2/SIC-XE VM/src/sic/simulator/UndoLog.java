@@ -0,0 +1,358 @@
+package sic.simulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+//zgodovina za izvajanje nazaj: za vsak ukaz se v obroc zapise, kar je ukaz spremenil (stari PC, stare vrednosti
+//spremenjenih registrov in stari bajti pred vsakim zapisom v pomnilnik), zato korak nazaj samo prepise stare vrednosti
+//zapis je en long, zgornja dva bita sta vrsta:
+//  KORAK: stari PC (24), zakljuci zapise enega ukaza; z bitom NADALJ zakljuci spremembe po ukazu
+//         (prekinitev ob koncu paketa, Machine.tick), ki spadajo k istemu koraku
+//  REG: stevilka registra (8) << 48 | stara vrednost (48, da gre zraven tudi F)
+//  MEM: naslov << 35 | dolzina (1-4) << 32 | stari bajti (prvi v najvisjem)
+//obroc ima fiksno velikost; ko je poln, se zavrze najstarejsi ukaz, zato je poraba pomnilnika omejena
+//starejse stanje se doseze s tockami: vsakih interval ukazov (ob koncu paketa, ko je casovnik tocen) se shranijo
+//registri, prekinitve in fork pomnilnika (copy-on-write, tocka stane samo strani, ki se za njo spremenijo);
+//do cilja pred obrocem se pride z najblizjo tocko pred njim in ponovnim izvajanjem
+//naprave se ne vracajo: ponovno izvajanje ponovi vhod in izhod, korak iz obroca pa ne vrne prebranega znaka
+//korak iz obroca tudi ne vrne casovnika in cakajocih prekinitev (tocka jih), zato se lahko po njem
+//prekinitev casovnika zgodi kasneje kot prvic
+public class UndoLog{
+
+    private static final long KORAK = 0L;
+    private static final long REG = 1L << 62;
+    private static final long MEM = 2L << 62;
+    private static final long VRSTA = 3L << 62;
+    private static final long NADALJ = 1L << 61;
+
+    private final long[] obroc;
+    private final int maska;
+    private long head, tail; // zapisi od tail do head so v obrocu
+    private long koraki; // celih ukazov v obrocu, toliko korakov nazaj gre brez ponovnega izvajanja
+    private boolean izgubljen; // trenutni ukaz je sam vecji od obroca, zgodovina se zacne za njim
+    private long cas; // izvedenih ukazov od zacetka zgodovine
+
+    //registri po zadnjem ukazu, z njimi se primerja, kaj je ukaz spremenil
+    private final int[] prejsnji = new int[Register.COUNT]; // po indeksih iz Register.registers
+    private long prejsnjiF;
+
+    private final long interval;
+    private final int maxTock;
+    private final ArrayDeque<Tocka> tocke = new ArrayDeque<>(); // najstarejsa prva
+    private long naslednjaTocka;
+
+    private static final class Tocka{
+        final long cas;
+        final Register regs;
+        final Memory mem;
+        final byte[] prekinitve;
+
+        Tocka(long cas, Register regs, Memory mem, byte[] prekinitve){
+            this.cas = cas;
+            this.regs = regs;
+            this.mem = mem;
+            this.prekinitve = prekinitve;
+        }
+    }
+
+    //obroc s 1M zapisi (8 MB, obicajno nekaj sto tisoc ukazov) in tocka vsakih 100000 ukazov, najvec 64 tock
+    //(6.4M ukazov nazaj, ponovno izvajanje do cilja je najvec en interval)
+    public UndoLog(){
+        this(1 << 20, 100_000L, 64);
+    }
+
+    //zapisov se zaokrozi navzgor na potenco 2
+    public UndoLog(int zapisov, long interval, int tock){
+        if(zapisov <= 0 || zapisov > 1 << 30 || interval <= 0 || tock <= 0)
+            throw new IllegalArgumentException("Neveljavna velikost zgodovine: " + zapisov + ", " + interval + ", " + tock);
+        int velikost = Integer.highestOneBit(zapisov);
+        if(velikost < zapisov)
+            velikost <<= 1;
+        obroc = new long[velikost];
+        maska = velikost - 1;
+        this.interval = interval;
+        this.maxTock = tock;
+    }
+
+    //zgodovina se zacne v trenutnem stanju stroja (Machine.setUndoLog in reset)
+    void start(Machine m){
+        head = tail = koraki = cas = 0;
+        izgubljen = false;
+        tocke.clear();
+        sync(m.regs);
+        tocka(m);
+    }
+
+    //izvedenih ukazov od zacetka zgodovine
+    public long getTime(){
+        return cas;
+    }
+
+    //najzgodnejsi cas, na katerega se se da vrnit
+    public long getOldest(){
+        long t = cas - koraki;
+        return tocke.isEmpty() ? t : Math.min(t, tocke.peekFirst().cas);
+    }
+
+    //stari bajti pred zapisom, klice ga Memory pred vsakim setByte/setWord/setBytes
+    void memory(Memory mem, int addr, int len){
+        for(int i = 0; i < len && !izgubljen; i += 4){
+            int n = Math.min(4, len - i);
+            long stari = 0;
+            for(int k = 0; k < n; k++)
+                stari = stari << 8 | mem.getByte(addr + i + k);
+            dodaj(MEM | (long) (addr + i) << 35 | (long) n << 32 | stari);
+        }
+    }
+
+    //po vsakem izvedenem ukazu (Machine.opazuj): spremenjeni registri in konec ukaza
+    void instruction(Machine m){
+        int[] r = m.regs.registers;
+        for(int i = 0; i < prejsnji.length && !izgubljen; i++){
+            if(i == Register.PC_INDEX || r[i] == prejsnji[i])
+                continue;
+            dodaj(REG | (long) Register.number(i) << 48 | prejsnji[i] & 0xFFFFFFFFL);
+        }
+        long f = m.regs.getFRaw();
+        if(f != prejsnjiF && !izgubljen)
+            dodaj(REG | (long) Register.F << 48 | prejsnjiF);
+        if(!izgubljen)
+            dodaj(KORAK | prejsnji[Register.PC_INDEX]);
+        if(izgubljen)
+            izgubljen = false; // obroc je prazen, nazaj gre samo se do tock
+        else
+            koraki++;
+        sync(m.regs);
+        cas++;
+    }
+
+    //konec paketa (Machine.tick): spremembe za zadnjim ukazom (prekinitev) se dodajo njegovemu koraku,
+    //tako da je stanje po ukazu vedno stanje po tick
+    void tick(Machine m){
+        int[] r = m.regs.registers;
+        boolean spremembe = head > tail && (obroc[(int) (head - 1) & maska] & VRSTA) != KORAK;
+        for(int i = 0; i < prejsnji.length && !izgubljen; i++){
+            if(r[i] == prejsnji[i])
+                continue;
+            if(i != Register.PC_INDEX)
+                dodaj(REG | (long) Register.number(i) << 48 | prejsnji[i] & 0xFFFFFFFFL);
+            spremembe = true;
+        }
+        long f = m.regs.getFRaw();
+        if(f != prejsnjiF && !izgubljen){
+            dodaj(REG | (long) Register.F << 48 | prejsnjiF);
+            spremembe = true;
+        }
+        if(spremembe && !izgubljen)
+            dodaj(KORAK | NADALJ | prejsnji[Register.PC_INDEX]);
+        izgubljen = false;
+        sync(m.regs);
+        if(cas >= naslednjaTocka)
+            tocka(m);
+    }
+
+    private void dodaj(long zapis){
+        if(head - tail == obroc.length && !zavrzi()){
+            head = tail;
+            izgubljen = true;
+            return;
+        }
+        obroc[(int) head & maska] = zapis;
+        head++;
+    }
+
+    //zavrze najstarejsi ukaz (do vkljucno njegovega KORAK brez NADALJ), false, ce v obrocu ni celega ukaza
+    //spremembe za njim (do NADALJ) ostanejo na zacetku obroca, dokler se ne zavrze naslednji
+    private boolean zavrzi(){
+        if(koraki == 0)
+            return false;
+        while((obroc[(int) tail++ & maska] & (VRSTA | NADALJ)) != KORAK);
+        koraki--;
+        return true;
+    }
+
+    private void sync(Register regs){
+        System.arraycopy(regs.registers, 0, prejsnji, 0, prejsnji.length);
+        prejsnjiF = regs.getFRaw();
+    }
+
+    private void tocka(Machine m){
+        if(tocke.size() == maxTock)
+            tocke.removeFirst();
+        ByteArrayOutputStream prekinitve = new ByteArrayOutputStream();
+        try {
+            m.writeInterrupts(new DataOutputStream(prekinitve));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // ByteArrayOutputStream ne vrze
+        }
+        tocke.addLast(new Tocka(cas, new Register(m.regs), m.mem.fork(), prekinitve.toByteArray()));
+        naslednjaTocka = cas + interval;
+    }
+
+    //n ukazov nazaj (oziroma do najzgodnejsega stanja), vrne, za koliko ukazov se je stroj vrnil
+    long back(Machine m, long n){
+        long zacetek = cas;
+        long cilj = Math.max(cas - Math.max(n, 0), getOldest());
+        m.mem.undo = null;
+        try {
+            pojdi(m, cilj);
+        } finally {
+            m.mem.undo = this;
+        }
+        return zacetek - cas;
+    }
+
+    //nazaj do zadnjega stanja pred trenutnim, v katerem je PC na pc, najvec max ukazov;
+    //ce ga ni, ostane stroj na najzgodnejsem dosegljivem stanju
+    boolean runBack(Machine m, int pc, long max){
+        long meja = Math.max(cas - Math.max(max, 0), getOldest());
+        m.mem.undo = null;
+        try {
+            nedokoncano(m);
+            //najprej po obrocu, kjer je korak nazaj poceni
+            while(koraki > 0 && cas > meja){
+                korakNazaj(m);
+                if(m.regs.getPC() == pc){
+                    sync(m.regs);
+                    odstraniNovejse();
+                    return true;
+                }
+            }
+            sync(m.regs);
+            //pred obrocem po odsekih med tockami od zadnjega nazaj: odsek se izvede naprej in zapomni zadnji prihod na pc
+            long konec = cas;
+            while(konec > meja){
+                Tocka t = tockaPred(konec - 1);
+                if(t == null)
+                    break;
+                izTocke(m, t);
+                long zadnji = -1;
+                if(m.regs.getPC() == pc && cas >= meja)
+                    zadnji = cas;
+                m.mem.undo = this;
+                while(cas < konec){
+                    long prej = cas;
+                    ExecutionEngine.StopReason r = m.runUntil(pc, konec - cas);
+                    if(r == ExecutionEngine.StopReason.BREAKPOINT && cas < konec && cas >= meja)
+                        zadnji = cas;
+                    if(cas == prej)
+                        break;
+                }
+                m.mem.undo = null;
+                if(zadnji >= 0){
+                    pojdi(m, zadnji);
+                    return true;
+                }
+                konec = t.cas;
+            }
+            pojdi(m, Math.max(meja, getOldest()));
+            return false;
+        } finally {
+            m.mem.undo = this;
+        }
+    }
+
+    //vrne stroj v stanje po cilj ukazih (cilj <= cas), zapisovanje v pomnilnik je izklopljeno
+    private void pojdi(Machine m, long cilj){
+        nedokoncano(m);
+        if(cas - cilj <= koraki){
+            while(cas > cilj)
+                korakNazaj(m);
+            sync(m.regs);
+            odstraniNovejse();
+            return;
+        }
+        sync(m.regs);
+        izTocke(m, tockaPred(cilj));
+        //ponovno izvajanje zapisuje v obroc, da so koraki nazaj od cilja spet poceni
+        m.mem.undo = this;
+        try {
+            while(cas < cilj){
+                long prej = cas;
+                m.run(cilj - cas);
+                if(cas == prej)
+                    break;
+            }
+        } finally {
+            m.mem.undo = null;
+        }
+    }
+
+    //zapisi za zadnjim korakom (npr. pisanje iz UI) in registri, kot so bili po zadnjem koraku
+    private void nedokoncano(Machine m){
+        while(head > tail && (obroc[(int) (head - 1) & maska] & VRSTA) != KORAK)
+            razveljavi(m, obroc[(int) --head & maska]);
+        System.arraycopy(prejsnji, 0, m.regs.registers, 0, prejsnji.length);
+        m.regs.setFRaw(prejsnjiF);
+    }
+
+    private void korakNazaj(Machine m){
+        long k;
+        do {
+            k = obroc[(int) --head & maska];
+            m.regs.setPC((int) k & 0xFFFFFF);
+            while(head > tail && (obroc[(int) (head - 1) & maska] & VRSTA) != KORAK)
+                razveljavi(m, obroc[(int) --head & maska]);
+        } while((k & NADALJ) != 0);
+        koraki--;
+        cas--;
+    }
+
+    private static void razveljavi(Machine m, long zapis){
+        if((zapis & VRSTA) == MEM){
+            int addr = (int) (zapis >>> 35) & 0x7FFFFFF;
+            int stari = (int) zapis;
+            for(int k = (int) (zapis >>> 32 & 7) - 1; k >= 0; k--){
+                m.mem.setByte(addr + k, stari);
+                stari >>>= 8;
+            }
+        }
+        else{
+            int reg = (int) (zapis >>> 48) & 0xFF;
+            if(reg == Register.F)
+                m.regs.setFRaw(zapis);
+            else
+                m.regs.setReg(reg, (int) zapis);
+        }
+    }
+
+    //najnovejsa tocka, ki ni za cas c
+    private Tocka tockaPred(long c){
+        Iterator<Tocka> it = tocke.descendingIterator();
+        while(it.hasNext()){
+            Tocka t = it.next();
+            if(t.cas <= c)
+                return t;
+        }
+        return null;
+    }
+
+    //stanje tocke, obroc se izprazni; novejse tocke se ob ponovnem izvajanju spet ustvarijo
+    private void izTocke(Machine m, Tocka t){
+        m.mem.copyFrom(t.mem);
+        m.regs.copyFrom(t.regs);
+        try {
+            m.readInterrupts(new DataInputStream(new ByteArrayInputStream(t.prekinitve)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        head = tail = koraki = 0;
+        izgubljen = false;
+        cas = t.cas;
+        sync(m.regs);
+        odstraniNovejse();
+    }
+
+    //tocke za trenutnim casom ne veljajo vec (izvajanje od tu naprej se lahko razlikuje)
+    private void odstraniNovejse(){
+        while(!tocke.isEmpty() && tocke.peekLast().cas > cas)
+            tocke.removeLast();
+        naslednjaTocka = tocke.isEmpty() ? cas : tocke.peekLast().cas + interval;
+    }
+}